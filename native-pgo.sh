@@ -0,0 +1,26 @@
+#!/bin/sh
+
+# Builds a profile-guided optimized native executable. The first build produces an instrumented
+# binary and runs the integration tests against it as the training workload, which writes the
+# collected profile to pgo/default.iprof. The second build uses that profile.
+#
+# Profile-guided optimization requires Oracle GraalVM, either as the local JAVA_HOME/GRAALVM_HOME or
+# as the builder image for a container build, for example:
+#
+#   ./native-pgo.sh -Dquarkus.native.container-build=true \
+#       -Dquarkus.native.builder-image=container-registry.oracle.com/graalvm/native-image:25
+
+set -x
+set -e
+
+rm -f pgo/default.iprof
+mkdir -p pgo
+
+./mvnw -B -Pnative,native-pgo-instrument "$@" clean verify
+
+if [ ! -s pgo/default.iprof ]; then
+    echo "Training run did not produce pgo/default.iprof" >&2
+    exit 1
+fi
+
+./mvnw -B -Pnative,native-pgo "$@" clean package -DskipTests
@@ -0,0 +1,88 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.util.concurrent.ExecutorService;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.RequestScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+// The degree of parallelism granted to the analysis in the current request. The resource sizes the
+// lease once the recording size is known, before the analysis starts. The report and heap dump
+// generators take their executor from the lease when they are first used, while the RuleEvaluator
+// is passed its threads. Either way the analysis runs on the shared pool of AnalysisParallelism
+// with at most that many threads. The slot is returned when the request ends.
+@RequestScoped
+public class AnalysisLease {
+
+    @Inject AnalysisParallelism parallelism;
+    @Inject Logger logger;
+
+    private int threads;
+    private long bytes = -1;
+    private boolean acquired;
+    private ExecutorService executor;
+
+    synchronized void size(long size) {
+        if (acquired) {
+            return;
+        }
+        threads = parallelism.acquire(size);
+        bytes = size;
+        acquired = true;
+        logger.debugv(
+                "Analysis of {0} bytes will use {1} threads ({2} analyses active)",
+                size, threads, parallelism.active());
+    }
+
+    synchronized int threads() {
+        if (!acquired) {
+            size(-1);
+        }
+        return threads;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = parallelism.executorFor(threads());
+        }
+        return executor;
+    }
+
+    // The lease itself rather than its request scoped proxy, so that a cancelled request can
+    // release it from outside of the request context
+    AutoCloseable reservation() {
+        return this::close;
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        executor = null;
+        if (acquired) {
+            parallelism.release();
+            acquired = false;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+// Decides how many threads each analysis may use. Small recordings are evaluated on a single
+// thread, since fork/join overhead outweighs the gain for them, while large recordings share the
+// available processors evenly with the other analyses running at the same time. All analyses,
+// whether of recordings or heap dumps, run on one pool bounded by the processors.
+@ApplicationScoped
+public class AnalysisParallelism {
+
+    @ConfigProperty(
+            name = "io.cryostat.reports.parallelism.single-thread-max-bytes",
+            defaultValue = "16777216")
+    long singleThreadMaxBytes;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final ExecutorService pool = newPool("cryostat-reports-analysis", maxParallelism());
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    int acquire(long size) {
+        return parallelismFor(size, active.incrementAndGet());
+    }
+
+    void release() {
+        active.decrementAndGet();
+    }
+
+    int active() {
+        return active.get();
+    }
+
+    // a negative size means that the size of the recording is not known in advance
+    int parallelismFor(long size, int concurrent) {
+        int max = maxParallelism();
+        if (max <= 1) {
+            return 1;
+        }
+        if (size >= 0 && size < singleThreadMaxBytes) {
+            return 1;
+        }
+        return Math.max(1, max / Math.max(1, concurrent));
+    }
+
+    static int maxParallelism() {
+        if (Boolean.getBoolean(ReportResource.SINGLETHREAD_PROPERTY)) {
+            return 1;
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    // The shared pool, for callers which limit their own number of tasks
+    ExecutorService pool() {
+        return pool;
+    }
+
+    // An executor which runs at most the given number of tasks at a time on the shared pool.
+    // Shutting it down only affects the tasks submitted through it.
+    ExecutorService executorFor(int parallelism) {
+        return new LimitedExecutor(pool, Math.max(1, parallelism));
+    }
+
+    private static ExecutorService newPool(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        60,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        r -> {
+                            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    static final class LimitedExecutor extends AbstractExecutorService {
+        private final ExecutorService pool;
+        private final int limit;
+        private final Queue<Runnable> queued = new ArrayDeque<>();
+        private final Set<Future<?>> running = new HashSet<>();
+        private boolean shutdown;
+
+        LimitedExecutor(ExecutorService pool, int limit) {
+            this.pool = pool;
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            queued.add(command);
+            dispatch();
+        }
+
+        // tasks which are already queued still run after a shutdown, as with other executors
+        private synchronized void dispatch() {
+            while (running.size() < limit && !queued.isEmpty()) {
+                FutureTask<Void> task =
+                        new FutureTask<>(queued.poll(), null) {
+                            // also called for cancelled tasks, once the pool gets to them
+                            @Override
+                            public void run() {
+                                try {
+                                    super.run();
+                                } finally {
+                                    finished(this);
+                                }
+                            }
+                        };
+                pool.execute(task);
+                running.add(task);
+            }
+        }
+
+        private synchronized void finished(Future<?> task) {
+            running.remove(task);
+            dispatch();
+            if (isTerminated()) {
+                notifyAll();
+            }
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+            if (isTerminated()) {
+                notifyAll();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> pending;
+            List<Future<?>> active;
+            synchronized (this) {
+                shutdown = true;
+                pending = new ArrayList<>(queued);
+                queued.clear();
+                active = new ArrayList<>(running);
+            }
+            // the running tasks are interrupted, and are removed by finished() once they return
+            active.forEach(task -> task.cancel(true));
+            return pending;
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && running.isEmpty() && queued.isEmpty();
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+    }
+}
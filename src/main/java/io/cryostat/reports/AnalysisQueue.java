@@ -0,0 +1,318 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+// Bounded wait queue in front of the analysis endpoints. Waiting requests are admitted by weighted
+// fair queueing across tenants: each request is tagged with a virtual finish time advanced by its
+// estimated cost (the recording size) divided by its tenant's weight, and the waiting request with
+// the earliest tag whose tenant is below its concurrency limit is admitted next. A tenant sending
+// large recordings therefore cannot delay the small requests of other tenants by more than one
+// analysis. Requests which cannot be admitted, because the queue is full, their tenant is over its
+// byte quota, or because they waited too long, are answered with 429 and a Retry-After estimated
+// from the measured service times and the number of requests ahead.
+@ApplicationScoped
+public class AnalysisQueue {
+
+    // weight of the latest sample in the moving averages
+    static final double SMOOTHING = 0.2;
+    static final String DEFAULT_TENANT = "default";
+    // requests of unknown size, such as presigned downloads, and small uploads are charged this
+    // many bytes, to account for the fixed cost of an analysis
+    static final long MIN_COST = 1024 * 1024;
+
+    @ConfigProperty(name = "io.cryostat.reports.queue.concurrency", defaultValue = "1")
+    int concurrency;
+
+    @ConfigProperty(name = "io.cryostat.reports.queue.depth", defaultValue = "8")
+    int depth;
+
+    @ConfigProperty(name = "io.cryostat.reports.queue.max-wait-ms", defaultValue = "10000")
+    long maxWaitMs;
+
+    @ConfigProperty(
+            name = "io.cryostat.reports.queue.tenant-header",
+            defaultValue = "X-Cryostat-Tenant")
+    String tenantHeader;
+
+    @ConfigProperty(name = "io.cryostat.reports.queue.tenant-concurrency", defaultValue = "0")
+    int tenantConcurrency;
+
+    @ConfigProperty(name = "io.cryostat.reports.queue.tenant-max-bytes", defaultValue = "0")
+    long tenantMaxBytes;
+
+    @ConfigProperty(name = "io.cryostat.reports.queue.tenant-weights")
+    Optional<List<String>> tenantWeights;
+
+    @Inject RequestId requestId;
+    @Inject Logger logger;
+
+    private final Map<String, Double> weights = new HashMap<>();
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private int active;
+    private int queued;
+    private double virtualTime;
+    private volatile double serviceMs = -1;
+    private volatile double waitMs;
+
+    @PostConstruct
+    void init() {
+        for (String entry : tenantWeights.orElse(List.of())) {
+            int idx = entry.lastIndexOf('=');
+            if (idx <= 0) {
+                logger.warnv("Ignoring malformed tenant weight \"{0}\"", entry);
+                continue;
+            }
+            double weight;
+            try {
+                weight = Double.parseDouble(entry.substring(idx + 1).trim());
+            } catch (NumberFormatException e) {
+                logger.warnv("Ignoring malformed tenant weight \"{0}\"", entry);
+                continue;
+            }
+            if (!(weight > 0) || Double.isInfinite(weight)) {
+                logger.warnv("Ignoring tenant weight \"{0}\", not a positive number", entry);
+                continue;
+            }
+            weights.put(entry.substring(0, idx).trim(), weight);
+        }
+    }
+
+    String tenantHeader() {
+        return tenantHeader;
+    }
+
+    Ticket enter(String tenantId, long bytes) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        long cost = Math.max(MIN_COST, bytes);
+        Waiter waiter;
+        synchronized (this) {
+            Tenant tenant = tenants.computeIfAbsent(tenantId, Tenant::new);
+            // a single request larger than the quota is still accepted when the tenant is idle
+            if (tenantMaxBytes > 0 && tenant.bytes > 0 && tenant.bytes + cost > tenantMaxBytes) {
+                removeIfIdle(tenant);
+                throw reject("tenant quota", tenantId, bytes, queued + 1);
+            }
+            double begin = Math.max(virtualTime, tenant.lastFinish);
+            tenant.lastFinish = begin + cost / weights.getOrDefault(tenantId, 1d);
+            waiter = new Waiter(tenant, cost, begin, tenant.lastFinish);
+            tenant.queue.add(waiter);
+            tenant.bytes += cost;
+            queued++;
+            dispatch();
+            if (!waiter.admitted && queued > depth) {
+                abandon(waiter);
+                throw reject("queue full", tenantId, bytes, queued + 1);
+            }
+            try {
+                while (!waiter.admitted) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        abandon(waiter);
+                        throw reject("queue timeout", tenantId, bytes, queued + 1);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                if (!waiter.admitted) {
+                    abandon(waiter);
+                    throw e;
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+        double waited = (System.nanoTime() - start) / 1e6;
+        waitMs = waitMs + SMOOTHING * (waited - waitMs);
+        return new Ticket(waiter, System.nanoTime());
+    }
+
+    // Caller must hold the monitor
+    private void dispatch() {
+        boolean admitted = false;
+        while (active < Math.max(1, concurrency)) {
+            Waiter next = null;
+            for (Tenant tenant : tenants.values()) {
+                Waiter head = tenant.queue.peek();
+                if (head == null || (tenantConcurrency > 0 && tenant.active >= tenantConcurrency)) {
+                    continue;
+                }
+                if (next == null || head.finish < next.finish) {
+                    next = head;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            next.tenant.queue.poll();
+            next.tenant.active++;
+            next.admitted = true;
+            queued--;
+            active++;
+            virtualTime = Math.max(virtualTime, next.start);
+            admitted = true;
+        }
+        if (admitted) {
+            notifyAll();
+        }
+    }
+
+    // Caller must hold the monitor
+    private void abandon(Waiter waiter) {
+        // the tenant's next request is tagged as if this one had never been queued, unless later
+        // requests of the tenant were already tagged after it
+        if (waiter.tenant.queue.peekLast() == waiter) {
+            waiter.tenant.lastFinish = waiter.start;
+        }
+        waiter.tenant.queue.remove(waiter);
+        waiter.tenant.bytes -= waiter.cost;
+        queued--;
+        removeIfIdle(waiter.tenant);
+    }
+
+    // Idle tenants are forgotten, and start again from the current virtual time when they return
+    private void removeIfIdle(Tenant tenant) {
+        if (tenant.active == 0 && tenant.queue.isEmpty()) {
+            tenants.remove(tenant.id);
+        }
+    }
+
+    private ClientErrorException reject(String reason, String tenant, long bytes, int position) {
+        long retryAfter = retryAfterSeconds(position);
+        logger.warnv(
+                "Rejecting request from {0} ({1}): {2} queued, {3} active, retry after {4}s",
+                tenant, reason, queued, active, retryAfter);
+        ReportEvents.AdmissionRejection event = new ReportEvents.AdmissionRejection();
+        event.requestId = requestId.get();
+        event.reason = reason;
+        // -1 if the size of the request is not known in advance
+        event.size = bytes;
+        event.status = Response.Status.TOO_MANY_REQUESTS.getStatusCode();
+        event.commit();
+        return new ClientErrorException(
+                Response.status(Response.Status.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, retryAfter)
+                        .build());
+    }
+
+    // A request at the given queue position is expected to be admitted once the requests ahead of
+    // it, and one of the running analyses, have completed
+    long retryAfterSeconds(int position) {
+        double service = serviceMs >= 0 ? serviceMs : maxWaitMs;
+        double ms = service * (1 + (double) Math.max(0, position - 1) / Math.max(1, concurrency));
+        return Math.max(1, (long) Math.ceil(ms / 1000));
+    }
+
+    synchronized Stats stats() {
+        Map<String, TenantStats> perTenant = new TreeMap<>();
+        tenants.values()
+                .forEach(
+                        t ->
+                                perTenant.put(
+                                        t.id, new TenantStats(t.active, t.queue.size(), t.bytes)));
+        return new Stats(
+                active,
+                queued,
+                Math.max(1, concurrency),
+                depth,
+                Math.round(waitMs),
+                Math.round(Math.max(0, serviceMs)),
+                perTenant);
+    }
+
+    class Ticket implements AutoCloseable {
+        private final Waiter waiter;
+        private final long start;
+
+        private Ticket(Waiter waiter, long start) {
+            this.waiter = waiter;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            double elapsed = (System.nanoTime() - start) / 1e6;
+            double current = serviceMs;
+            serviceMs = current < 0 ? elapsed : current + SMOOTHING * (elapsed - current);
+            synchronized (AnalysisQueue.this) {
+                Tenant tenant = waiter.tenant;
+                tenant.active--;
+                tenant.bytes -= waiter.cost;
+                active--;
+                removeIfIdle(tenant);
+                dispatch();
+            }
+        }
+    }
+
+    private static class Tenant {
+        final String id;
+        final Deque<Waiter> queue = new ArrayDeque<>();
+        int active;
+        long bytes;
+        double lastFinish;
+
+        Tenant(String id) {
+            this.id = id;
+        }
+    }
+
+    private static class Waiter {
+        final Tenant tenant;
+        final long cost;
+        final double start;
+        final double finish;
+        boolean admitted;
+
+        Waiter(Tenant tenant, long cost, double start, double finish) {
+            this.tenant = tenant;
+            this.cost = cost;
+            this.start = start;
+            this.finish = finish;
+        }
+    }
+
+    @RegisterForReflection
+    public record Stats(
+            int active,
+            int queued,
+            int concurrency,
+            int depth,
+            long averageWaitMs,
+            long averageServiceMs,
+            Map<String, TenantStats> tenants) {}
+
+    @RegisterForReflection
+    public record TenantStats(int active, int queued, long bytes) {}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import io.vertx.ext.web.RoutingContext;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.interceptor.AroundInvoke;
+import jakarta.interceptor.Interceptor;
+import jakarta.interceptor.InvocationContext;
+import org.apache.commons.lang3.StringUtils;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+
+// Ordered before the fault tolerance interceptors, so that time spent waiting in the queue does not
+// count towards the analysis @Timeout. Requests are attributed to the tenant named by the tenant
+// header, or else to the jvmId form field, or else to the requesting host.
+@Queued
+@Interceptor
+@Priority(Interceptor.Priority.PLATFORM_AFTER)
+public class AnalysisQueueInterceptor {
+
+    @Inject AnalysisQueue queue;
+
+    @AroundInvoke
+    Object admit(InvocationContext ctx) throws Exception {
+        String header = null;
+        String jvmId = null;
+        String host = null;
+        long bytes = -1;
+        for (Object param : ctx.getParameters()) {
+            if (param instanceof RoutingContext rc) {
+                header = rc.request().getHeader(queue.tenantHeader());
+                if (rc.request().remoteAddress() != null) {
+                    host = rc.request().remoteAddress().host();
+                }
+            } else if (param instanceof RecordingFormData form) {
+                jvmId = form.jvmId;
+                bytes = size(form.file);
+            } else if (param instanceof HeapDumpFormData form) {
+                jvmId = form.jvmId;
+                bytes = size(form.file);
+            } else if (param instanceof ComparisonFormData form) {
+                bytes = size(form.baseline) + size(form.candidate);
+            }
+        }
+        String tenant =
+                StringUtils.firstNonBlank(header, jvmId, host, AnalysisQueue.DEFAULT_TENANT);
+        AnalysisQueue.Ticket ticket = queue.enter(tenant, bytes);
+        try {
+            return ctx.proceed();
+        } finally {
+            ticket.close();
+        }
+    }
+
+    private static long size(FileUpload upload) {
+        return upload != null ? upload.size() : 0;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.jboss.logging.Logger;
+
+// Cancels all stages of one analysis request together. Connections, streams, futures, temporary
+// files and reservations are registered with the token as they are created, and are released as
+// soon as the request is cancelled, most recently registered first, rather than whenever the stage
+// holding them next checks for an interrupt. Streams guarded by the token also fail on their next
+// read, so that downloads, decompression and parsing stop even if the read does not block.
+class CancellationToken {
+
+    private final String requestId;
+    private final Logger logger;
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+    private boolean completed;
+    private volatile String reason;
+
+    CancellationToken(String requestId, Logger logger) {
+        this.requestId = requestId;
+        this.logger = logger;
+    }
+
+    String requestId() {
+        return requestId;
+    }
+
+    boolean isCancelled() {
+        return reason != null;
+    }
+
+    void throwIfCancelled() throws InterruptedIOException {
+        String reason = this.reason;
+        if (reason != null) {
+            throw new InterruptedIOException(
+                    String.format("Request %s cancelled: %s", requestId, reason));
+        }
+    }
+
+    // Resources registered after the request was cancelled are released immediately
+    void onCancel(AutoCloseable resource) {
+        synchronized (this) {
+            if (reason == null) {
+                if (!completed) {
+                    resources.push(resource);
+                }
+                return;
+            }
+        }
+        release(resource);
+    }
+
+    <T extends Future<?>> T register(T future) {
+        onCancel(() -> future.cancel(true));
+        return future;
+    }
+
+    InputStream guard(InputStream in) {
+        onCancel(in);
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                throwIfCancelled();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                throwIfCancelled();
+                return super.read(b, off, len);
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                throwIfCancelled();
+                return super.skip(n);
+            }
+        };
+    }
+
+    // Called once the request has finished normally and has released its own resources. Later
+    // cancellations, e.g. by the end of the response, have no effect.
+    void complete() {
+        synchronized (this) {
+            completed = true;
+            resources.clear();
+        }
+    }
+
+    void cancel(String reason) {
+        List<AutoCloseable> pending;
+        synchronized (this) {
+            if (completed || this.reason != null) {
+                return;
+            }
+            this.reason = reason;
+            pending = new ArrayList<>(resources);
+            resources.clear();
+        }
+        logger.infof(
+                "Cancelling request %s (%s), releasing %d resources",
+                requestId, reason, pending.size());
+        ReportEvents.Cancellation event = new ReportEvents.Cancellation();
+        event.requestId = requestId;
+        event.reason = reason;
+        event.begin();
+        pending.forEach(this::release);
+        event.commit();
+    }
+
+    private void release(AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            logger.debug("Failed to release resource of cancelled request", e);
+        }
+    }
+}
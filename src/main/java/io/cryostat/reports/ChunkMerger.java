@@ -0,0 +1,108 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.item.ItemCollectionToolkit;
+import org.openjdk.jmc.common.item.ItemIterableToolkit;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IRange;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+import org.openjdk.jmc.flightrecorder.internal.util.DisjointBuilder;
+
+// Combines separately parsed chunks of one recording into the collection the parser would have
+// produced for the whole file. The parser keeps the duration events of each type in lanes of
+// non-overlapping events and joins the lanes of all chunks with DisjointBuilder.toArrays, while
+// instant events are sorted by time into a single lane. Several rules look at the events of each
+// lane in order, so simply concatenating the per-chunk collections gives slightly different
+// results than a single parse of the file. The same JMC code is used here to join the chunks.
+final class ChunkMerger {
+
+    private ChunkMerger() {}
+
+    // A lane of one chunk
+    record Segment(String key, IType<IItem> type, IItem[] items) {}
+
+    static List<Segment> segments(IItemCollection chunk) {
+        List<Segment> segments = new ArrayList<>();
+        for (IItemIterable items : chunk) {
+            IType<IItem> type = items.getType();
+            // types are matched by their metadata, since each chunk has its own type instances
+            StringBuilder key = new StringBuilder(type.getIdentifier());
+            type.getAccessorKeys().keySet().forEach(k -> key.append(',').append(k.getIdentifier()));
+            segments.add(new Segment(key.toString(), type, items.stream().toArray(IItem[]::new)));
+        }
+        return segments;
+    }
+
+    static IItemCollection merge(List<List<Segment>> chunks, Set<IRange<IQuantity>> timeRanges) {
+        Map<String, List<Segment>> byType = new LinkedHashMap<>();
+        for (List<Segment> chunk : chunks) {
+            for (Segment segment : chunk) {
+                byType.computeIfAbsent(segment.key, k -> new ArrayList<>()).add(segment);
+            }
+        }
+        List<IItemIterable> merged = new ArrayList<>();
+        for (List<Segment> segments : byType.values()) {
+            IType<IItem> type = segments.get(0).type;
+            for (IItem[] lane : lanes(type, segments)) {
+                merged.add(ItemIterableToolkit.build(() -> Arrays.stream(lane), type));
+            }
+        }
+        return ItemCollectionToolkit.build(merged::stream, new LinkedHashSet<>(timeRanges));
+    }
+
+    // Duration and instant types are told apart the same way as in the parser's RepositoryBuilder
+    private static Collection<IItem[]> lanes(IType<IItem> type, List<Segment> segments) {
+        if (segments.size() == 1) {
+            return List.<IItem[]>of(segments.get(0).items);
+        }
+        IMemberAccessor<IQuantity, IItem> start = JfrAttributes.START_TIME.getAccessor(type);
+        IMemberAccessor<IQuantity, IItem> end = JfrAttributes.END_TIME.getAccessor(type);
+        if (start != null && start != end) {
+            // each segment is disjoint and ordered, so it becomes a single lane of its builder
+            List<DisjointBuilder<IItem>> builders = new ArrayList<>(segments.size());
+            for (Segment segment : segments) {
+                DisjointBuilder<IItem> builder = new DisjointBuilder<>(start, end);
+                for (IItem item : segment.items) {
+                    builder.add(item);
+                }
+                builders.add(builder);
+            }
+            return DisjointBuilder.toArrays(builders, IItem[]::new);
+        }
+        IItem[] events =
+                segments.stream().flatMap(s -> Arrays.stream(s.items)).toArray(IItem[]::new);
+        if (end != null) {
+            Arrays.sort(events, Comparator.comparing(end::getMember));
+        }
+        return List.<IItem[]>of(events);
+    }
+}
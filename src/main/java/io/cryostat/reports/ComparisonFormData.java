@@ -0,0 +1,45 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.net.URI;
+
+import jakarta.ws.rs.core.MediaType;
+import org.jboss.resteasy.reactive.PartType;
+import org.jboss.resteasy.reactive.RestForm;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+
+public class ComparisonFormData {
+    @RestForm
+    @PartType(MediaType.APPLICATION_OCTET_STREAM)
+    public FileUpload baseline;
+
+    @RestForm
+    @PartType(MediaType.TEXT_PLAIN)
+    public URI baselineUri;
+
+    @RestForm
+    @PartType(MediaType.APPLICATION_OCTET_STREAM)
+    public FileUpload candidate;
+
+    @RestForm
+    @PartType(MediaType.TEXT_PLAIN)
+    public URI candidateUri;
+
+    @RestForm
+    @PartType(MediaType.TEXT_PLAIN)
+    public String filter;
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IRange;
+import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+
+// Retains the parsed chunks of continuous recordings, keyed by jvmId, so that repeated analyses of
+// a growing recording only need to parse the chunks which were not present in the previous upload.
+// Chunks are identified by their start time and size, so chunks which have aged out of the front
+// of a size- or age-limited recording are dropped while the remaining ones are still reused. Only
+// the parsing is incremental: the rules score the recording as a whole, so they cannot be combined
+// from per-chunk results and are all evaluated again over the merged chunks on every request.
+@ApplicationScoped
+public class IncrementalAnalysisCache {
+
+    // JFR chunk header layout: magic (4), major (2), minor (2), chunk size (8), constant pool
+    // offset (8), metadata offset (8), start nanos (8), ...
+    static final int CHUNK_HEADER_SIZE = 68;
+    static final int CHUNK_MAGIC = 0x464c5200; // "FLR\0"
+    static final int CHUNK_SIZE_OFFSET = 8;
+    static final int CHUNK_START_NANOS_OFFSET = 32;
+
+    @ConfigProperty(name = "io.cryostat.reports.incremental.max-jvms", defaultValue = "8")
+    int maxJvms;
+
+    // Limit on the total size of the recording chunks retained for all JVMs. The least recently
+    // analyzed recordings are evicted first, and a recording which exceeds the limit on its own
+    // is not retained at all.
+    @ConfigProperty(
+            name = "io.cryostat.reports.incremental.max-retained-bytes",
+            defaultValue = "268435456")
+    long maxRetainedBytes;
+
+    @Inject RuleEvaluator evaluator;
+    @Inject Logger logger;
+
+    private final Map<String, JvmState> states = new LinkedHashMap<>(16, 0.75f, true);
+
+    Future<Map<String, AnalysisResult>> analyze(
+            String jvmId,
+            java.nio.file.Path file,
+            Predicate<IRule> predicate,
+            int threads,
+            CancellationToken token) {
+        return evaluator.submit(
+                "incremental", () -> update(jvmId, file, token).items(), predicate, threads, token);
+    }
+
+    Update update(String jvmId, java.nio.file.Path file, CancellationToken token)
+            throws IOException, CouldNotLoadRecordingException {
+        JvmState state = getState(jvmId);
+        Update update;
+        synchronized (state) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // closing the channel aborts the parse of the current chunk
+                token.onCancel(channel);
+                List<ChunkHeader> headers = readChunkHeaders(channel);
+                Map<ChunkKey, ParsedChunk> previous = new HashMap<>();
+                state.chunks.forEach(c -> previous.put(ChunkKey.of(c.header), c));
+                List<ParsedChunk> chunks = new ArrayList<>(headers.size());
+                int cached = 0;
+                for (ChunkHeader header : headers) {
+                    ParsedChunk chunk = previous.remove(ChunkKey.of(header));
+                    if (chunk != null) {
+                        cached++;
+                    } else {
+                        if (Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedIOException();
+                        }
+                        token.throwIfCancelled();
+                        chunk = parse(channel, header);
+                    }
+                    chunks.add(chunk);
+                }
+                if (!previous.isEmpty()) {
+                    logger.debugv(
+                            "Dropping {0} chunks no longer present in the recording for {1}",
+                            previous.size(), jvmId);
+                }
+                state.chunks = chunks;
+                state.retainedBytes = chunks.stream().mapToLong(c -> c.header.size).sum();
+                logger.infof(
+                        "Incremental analysis for %s: %d chunks cached, %d chunks parsed",
+                        jvmId, cached, headers.size() - cached);
+                List<List<ChunkMerger.Segment>> segments = new ArrayList<>(chunks.size());
+                Set<IRange<IQuantity>> timeRanges = new LinkedHashSet<>();
+                for (ParsedChunk chunk : chunks) {
+                    segments.add(chunk.segments);
+                    timeRanges.addAll(chunk.timeRanges);
+                }
+                update =
+                        new Update(
+                                ChunkMerger.merge(segments, timeRanges),
+                                cached,
+                                headers.size() - cached);
+            }
+        }
+        trim(jvmId);
+        return update;
+    }
+
+    // getUnfilteredTimeRanges is deprecated, but it is the only way to get the time ranges a chunk
+    // covers, which the merged collection needs to report for the whole recording
+    @SuppressWarnings("deprecation")
+    private ParsedChunk parse(FileChannel channel, ChunkHeader header)
+            throws IOException, CouldNotLoadRecordingException {
+        try (InputStream stream =
+                new BufferedInputStream(
+                        new BoundedInputStream(
+                                Channels.newInputStream(channel.position(header.offset)),
+                                header.size))) {
+            IItemCollection items = JfrLoaderToolkit.loadEvents(stream);
+            return new ParsedChunk(
+                    header, ChunkMerger.segments(items), items.getUnfilteredTimeRanges());
+        }
+    }
+
+    private JvmState getState(String jvmId) {
+        synchronized (states) {
+            JvmState state = states.computeIfAbsent(jvmId, k -> new JvmState());
+            while (states.size() > Math.max(1, maxJvms)) {
+                String eldest = states.keySet().iterator().next();
+                logger.debugv("Evicting incremental analysis state for {0}", eldest);
+                states.remove(eldest);
+            }
+            return state;
+        }
+    }
+
+    private void trim(String jvmId) {
+        synchronized (states) {
+            long retained = states.values().stream().mapToLong(s -> s.retainedBytes).sum();
+            Iterator<Map.Entry<String, JvmState>> it = states.entrySet().iterator();
+            while (retained > maxRetainedBytes && it.hasNext()) {
+                Map.Entry<String, JvmState> eldest = it.next();
+                if (eldest.getKey().equals(jvmId)) {
+                    continue;
+                }
+                logger.debugv("Evicting incremental analysis state for {0}", eldest.getKey());
+                retained -= eldest.getValue().retainedBytes;
+                it.remove();
+            }
+            if (retained > maxRetainedBytes) {
+                logger.infof(
+                        "Recording for %s exceeds the retained size limit of %d bytes, not"
+                                + " retaining its chunks",
+                        jvmId, maxRetainedBytes);
+                states.remove(jvmId);
+            }
+        }
+    }
+
+    // Only complete chunks are returned. A trailing chunk which is still being written, or which
+    // was truncated, is left for a later request.
+    static List<ChunkHeader> readChunkHeaders(FileChannel channel) throws IOException {
+        List<ChunkHeader> headers = new ArrayList<>();
+        long length = channel.size();
+        long offset = 0;
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+        while (offset + CHUNK_HEADER_SIZE <= length) {
+            buf.clear();
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) {
+                    return headers;
+                }
+            }
+            buf.flip();
+            if (buf.getInt(0) != CHUNK_MAGIC) {
+                if (headers.isEmpty()) {
+                    throw new IOException("Not a JFR recording");
+                }
+                break;
+            }
+            long size = buf.getLong(CHUNK_SIZE_OFFSET);
+            if (size < CHUNK_HEADER_SIZE || offset + size > length) {
+                break;
+            }
+            headers.add(new ChunkHeader(offset, size, buf.getLong(CHUNK_START_NANOS_OFFSET)));
+            offset += size;
+        }
+        return headers;
+    }
+
+    record ChunkHeader(long offset, long size, long startNanos) {}
+
+    // The result of bringing a recording's retained chunks up to date, with the number of chunks
+    // which were reused and the number which had to be parsed
+    record Update(IItemCollection items, int cached, int parsed) {}
+
+    // Chunks keep their start time and size when the recording is rotated, but not their offset
+    private record ChunkKey(long startNanos, long size) {
+        static ChunkKey of(ChunkHeader header) {
+            return new ChunkKey(header.startNanos, header.size);
+        }
+    }
+
+    private record ParsedChunk(
+            ChunkHeader header,
+            List<ChunkMerger.Segment> segments,
+            Set<IRange<IQuantity>> timeRanges) {}
+
+    private static class JvmState {
+        volatile List<ParsedChunk> chunks = List.of();
+        volatile long retainedBytes;
+    }
+
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // the underlying channel is owned by the caller
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.openjdk.jmc.common.item.IAggregator;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemConsumer;
+import org.openjdk.jmc.common.item.IItemFilter;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.IRange;
+
+// Memoizes the filtered views and aggregates of an item collection for the duration of a single
+// evaluation, so that rules applying the same filter and aggregator share one pass over the events.
+// Most rules use the JdkFilters and JdkAggregators constants. Filters and aggregators do not
+// implement equals, so in practice they are keyed by identity. A rule requesting an aggregate which
+// another rule is already computing waits for that result rather than computing it again.
+final class MemoizingItemCollection implements IItemCollection {
+
+    private final IItemCollection delegate;
+    private final Map<IItemFilter, MemoizingItemCollection> views = new ConcurrentHashMap<>();
+    private final Map<IAggregator<?, ?>, FutureTask<?>> aggregates = new ConcurrentHashMap<>();
+
+    MemoizingItemCollection(IItemCollection delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public IItemCollection apply(IItemFilter filter) {
+        return views.computeIfAbsent(filter, f -> new MemoizingItemCollection(delegate.apply(f)));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V, C extends IItemConsumer<C>> V getAggregate(IAggregator<V, C> aggregator) {
+        FutureTask<V> task = new FutureTask<>(() -> delegate.getAggregate(aggregator));
+        FutureTask<V> existing = (FutureTask<V>) aggregates.putIfAbsent(aggregator, task);
+        if (existing == null) {
+            task.run();
+            existing = task;
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error err) {
+                throw err;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public boolean hasItems() {
+        return delegate.hasItems();
+    }
+
+    // Deprecated in IItemCollection but still abstract, so it has to be delegated
+    @Override
+    @SuppressWarnings("deprecation")
+    public Set<IRange<IQuantity>> getUnfilteredTimeRanges() {
+        return delegate.getUnfilteredTimeRanges();
+    }
+
+    @Override
+    public Iterator<IItemIterable> iterator() {
+        return delegate.iterator();
+    }
+}
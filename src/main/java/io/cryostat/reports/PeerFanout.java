@@ -0,0 +1,401 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ServerErrorException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.openjdk.jmc.flightrecorder.rules.DependsOn;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+
+// Splits the rule evaluation of a large recording across sibling instances of this service. The
+// recording is served to the peers from this instance's temporary file at GET /fanout/{id}, and
+// each peer analyzes it through its own POST /remote_report with a filter naming a disjoint subset
+// of the rules. The remaining rules are evaluated locally while the peers are working, and the
+// rules of any peer which fails are evaluated locally afterward. Since this instance keeps its own
+// queue slot while it waits for the peers, only peers with a free slot are sent a part. The file is
+// only served to requests carrying the random token which was sent to the peers along with its URL.
+@ApplicationScoped
+public class PeerFanout {
+
+    static final String PATH = "fanout";
+    static final String TOKEN_HEADER = "X-Cryostat-Fanout-Token";
+
+    private static final TypeReference<Map<String, AnalysisResult>> RESULTS_TYPE =
+            new TypeReference<>() {};
+
+    // Share of the remaining request time within which the peers must respond, leaving the rest to
+    // evaluate the rules of failed peers locally
+    static final double PEER_BUDGET = 0.5;
+
+    static final Duration PROBE_TIMEOUT = Duration.ofSeconds(1);
+
+    // Base URLs of the peer instances, for example http://reports-1:8080
+    @ConfigProperty(name = "io.cryostat.reports.fanout.peers")
+    Optional<List<URI>> peers;
+
+    // Base URL at which the peers can reach this particular instance, rather than the service
+    // address shared by all replicas
+    @ConfigProperty(name = "io.cryostat.reports.fanout.advertised-url")
+    Optional<URI> advertisedUrl;
+
+    @ConfigProperty(name = "io.cryostat.reports.fanout.min-bytes", defaultValue = "268435456")
+    long minBytes;
+
+    @ConfigProperty(name = "io.cryostat.reports.timeout", defaultValue = "29000")
+    long timeoutMs;
+
+    @Inject AnalysisQueue queue;
+    @Inject RuleEvaluator evaluator;
+    @Inject RequestId requestId;
+    @Inject ObjectMapper mapper;
+    @Inject Logger logger;
+
+    private final Map<String, SharedFile> files = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private HttpClient client;
+
+    @PostConstruct
+    void init() {
+        client =
+                HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .connectTimeout(Duration.ofMillis(timeoutMs))
+                        .build();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        client.close();
+    }
+
+    boolean accepts(long size) {
+        return advertisedUrl.isPresent() && !peers.orElse(List.of()).isEmpty() && size >= minBytes;
+    }
+
+    // Returns null once the analysis which shared the file has completed, or if the token does not
+    // match the one sent to the peers
+    java.nio.file.Path file(String id, String token) {
+        SharedFile shared = files.get(id);
+        if (shared == null
+                || token == null
+                || !MessageDigest.isEqual(
+                        shared.token.getBytes(StandardCharsets.UTF_8),
+                        token.getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        return shared.path;
+    }
+
+    SharedFile share(java.nio.file.Path file) {
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        SharedFile shared =
+                new SharedFile(
+                        UUID.randomUUID().toString(),
+                        file,
+                        Base64.getUrlEncoder().withoutPadding().encodeToString(secret));
+        files.put(shared.id, shared);
+        return shared;
+    }
+
+    void unshare(String id) {
+        files.remove(id);
+    }
+
+    Map<String, AnalysisResult> analyze(
+            java.nio.file.Path file,
+            Predicate<IRule> predicate,
+            String tenant,
+            CancellationToken token,
+            long start,
+            LocalAnalysis local)
+            throws IOException, ExecutionException, InterruptedException {
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        List<URI> targets = idlePeers();
+        if (targets.isEmpty()) {
+            logger.debug("No peer has a free analysis slot, evaluating all rules locally");
+            return local.analyze(predicate);
+        }
+        // the first part is evaluated locally
+        List<Set<String>> parts = partition(evaluator.rules(), predicate, targets.size() + 1);
+        SharedFile shared = share(file);
+        String id = shared.id;
+        token.onCancel(() -> unshare(id));
+        URI source = resolve(advertisedUrl.get(), PATH + "/" + id);
+        List<PeerRequest> requests = new ArrayList<>();
+        try {
+            Set<String> remote = new HashSet<>();
+            long peerDeadline =
+                    System.nanoTime() + (long) ((deadline - System.nanoTime()) * PEER_BUDGET);
+            for (int i = 1; i < parts.size(); i++) {
+                if (parts.get(i).isEmpty()) {
+                    continue;
+                }
+                remote.addAll(parts.get(i));
+                requests.add(
+                        send(
+                                targets.get(i - 1),
+                                source,
+                                shared.token,
+                                parts.get(i),
+                                tenant,
+                                peerDeadline,
+                                token));
+            }
+            long localStart = System.nanoTime();
+            Map<String, AnalysisResult> results =
+                    new HashMap<>(
+                            local.analyze(r -> predicate.test(r) && !remote.contains(r.getId())));
+            long localNanos = System.nanoTime() - localStart;
+            Set<String> failed = new HashSet<>();
+            for (PeerRequest request : requests) {
+                Map<String, AnalysisResult> partial;
+                try {
+                    partial = request.await(mapper, peerDeadline);
+                } catch (IOException | ExecutionException | TimeoutException e) {
+                    logger.warnf(
+                            "Peer %s failed to analyze %d rules, evaluating them locally: %s",
+                            request.peer, request.rules.size(), e.getMessage());
+                    failed.addAll(request.rules);
+                    continue;
+                }
+                for (String ruleId : request.rules) {
+                    AnalysisResult result = partial.get(ruleId);
+                    if (result != null) {
+                        results.put(ruleId, result);
+                    } else {
+                        failed.add(ruleId);
+                    }
+                }
+            }
+            if (!failed.isEmpty()) {
+                // the recording is parsed again for these rules, which takes about as long as the
+                // local part did
+                if (deadline - System.nanoTime() < localNanos) {
+                    logger.warnf(
+                            "No time left to evaluate %d rules of failed peers locally",
+                            failed.size());
+                    throw new ServerErrorException(Response.Status.GATEWAY_TIMEOUT);
+                }
+                Map<String, AnalysisResult> retried =
+                        local.analyze(r -> failed.contains(r.getId()));
+                failed.forEach(ruleId -> results.put(ruleId, retried.get(ruleId)));
+            }
+            return results;
+        } finally {
+            unshare(id);
+            requests.forEach(r -> r.future.cancel(true));
+        }
+    }
+
+    // Peers which report a free analysis slot in their queue statistics
+    private List<URI> idlePeers() throws InterruptedException {
+        List<URI> targets = peers.orElse(List.of());
+        List<CompletableFuture<HttpResponse<byte[]>>> probes = new ArrayList<>();
+        for (URI peer : targets) {
+            probes.add(
+                    client.sendAsync(
+                            HttpRequest.newBuilder(resolve(peer, "queue"))
+                                    .timeout(PROBE_TIMEOUT)
+                                    .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                                    .GET()
+                                    .build(),
+                            HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        List<URI> idle = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            URI peer = targets.get(i);
+            try {
+                HttpResponse<byte[]> response =
+                        probes.get(i).get(PROBE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                if (response.statusCode() != 200) {
+                    throw new IOException("Peer responded with status " + response.statusCode());
+                }
+                AnalysisQueue.Stats stats =
+                        mapper.readValue(response.body(), AnalysisQueue.Stats.class);
+                if (stats.active() + stats.queued() < stats.concurrency()) {
+                    idle.add(peer);
+                } else {
+                    logger.debugv("Peer {0} has no free analysis slot", peer);
+                }
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                logger.debugv("Peer {0} did not report its queue: {1}", peer, e.getMessage());
+                probes.get(i).cancel(true);
+            }
+        }
+        return idle;
+    }
+
+    private PeerRequest send(
+            URI peer,
+            URI source,
+            String sourceToken,
+            Set<String> rules,
+            String tenant,
+            long deadline,
+            CancellationToken token) {
+        String boundary = UUID.randomUUID().toString();
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("uri", source.toString());
+        fields.put("filter", String.join(",", rules));
+        fields.put("fanoutToken", sourceToken);
+        HttpRequest.Builder builder =
+                HttpRequest.newBuilder(resolve(peer, "remote_report"))
+                        .timeout(Duration.ofNanos(Math.max(1, deadline - System.nanoTime())))
+                        .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                        .header(
+                                HttpHeaders.CONTENT_TYPE,
+                                MediaType.MULTIPART_FORM_DATA + "; boundary=" + boundary)
+                        .POST(multipart(boundary, fields));
+        // the peer queues the request on behalf of the original tenant
+        if (StringUtils.isNotBlank(tenant)) {
+            builder.header(queue.tenantHeader(), tenant);
+        }
+        logger.debugv("Sending {0} rules to peer {1}", rules.size(), peer);
+        ReportEvents.PeerAnalysis event = new ReportEvents.PeerAnalysis();
+        event.requestId = requestId.get();
+        event.peer = peer.toString();
+        event.rules = rules.size();
+        event.begin();
+        CompletableFuture<HttpResponse<byte[]>> future =
+                client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+        future.whenComplete(
+                (response, e) -> {
+                    event.status = response != null ? response.statusCode() : 0;
+                    event.commit();
+                });
+        return new PeerRequest(peer, rules, token.register(future));
+    }
+
+    // Dependent rules read the result of the rule they depend on from the same evaluation pass, so
+    // they are kept in the same part. Parts are then filled largest group first.
+    static List<Set<String>> partition(
+            Collection<IRule> rules, Predicate<IRule> predicate, int count) {
+        Map<String, IRule> selected = new TreeMap<>();
+        for (IRule rule : rules) {
+            if (predicate.test(rule)) {
+                selected.put(rule.getId(), rule);
+            }
+        }
+        Map<String, List<String>> groups = new TreeMap<>();
+        for (IRule rule : selected.values()) {
+            IRule root = rule;
+            for (int depth = 0; depth < selected.size(); depth++) {
+                DependsOn dependency = root.getClass().getAnnotation(DependsOn.class);
+                if (dependency == null
+                        || !selected.containsKey(dependency.value().getSimpleName())) {
+                    break;
+                }
+                root = selected.get(dependency.value().getSimpleName());
+            }
+            groups.computeIfAbsent(root.getId(), k -> new ArrayList<>()).add(rule.getId());
+        }
+        List<List<String>> ordered = new ArrayList<>(groups.values());
+        ordered.sort(Comparator.comparingInt(List<String>::size).reversed());
+        List<Set<String>> parts = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, count); i++) {
+            parts.add(new TreeSet<>());
+        }
+        for (List<String> group : ordered) {
+            parts.stream().min(Comparator.comparingInt(Set::size)).get().addAll(group);
+        }
+        return parts;
+    }
+
+    private static URI resolve(URI base, String path) {
+        return URI.create(StringUtils.removeEnd(base.toString(), "/") + "/" + path);
+    }
+
+    private static HttpRequest.BodyPublisher multipart(
+            String boundary, Map<String, String> fields) {
+        StringBuilder body = new StringBuilder();
+        fields.forEach(
+                (name, value) ->
+                        body.append("--")
+                                .append(boundary)
+                                .append("\r\nContent-Disposition: form-data; name=\"")
+                                .append(name)
+                                .append("\"\r\nContent-Type: text/plain; charset=UTF-8\r\n\r\n")
+                                .append(value)
+                                .append("\r\n"));
+        body.append("--").append(boundary).append("--\r\n");
+        return HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    interface LocalAnalysis {
+        Map<String, AnalysisResult> analyze(Predicate<IRule> predicate)
+                throws IOException, ExecutionException, InterruptedException;
+    }
+
+    record SharedFile(String id, java.nio.file.Path path, String token) {}
+
+    private record PeerRequest(
+            URI peer, Set<String> rules, CompletableFuture<HttpResponse<byte[]>> future) {
+        Map<String, AnalysisResult> await(ObjectMapper mapper, long deadline)
+                throws IOException, ExecutionException, InterruptedException, TimeoutException {
+            HttpResponse<byte[]> response =
+                    future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (response.statusCode() != 200) {
+                throw new IOException("Peer responded with status " + response.statusCode());
+            }
+            return mapper.readValue(response.body(), RESULTS_TYPE);
+        }
+    }
+}
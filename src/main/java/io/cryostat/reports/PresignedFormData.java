@@ -29,4 +29,10 @@ public class PresignedFormData {
     @RestForm
     @PartType(MediaType.TEXT_PLAIN)
     public String filter;
+
+    // Set when the uri points at a recording served by a peer for fan-out rather than at the
+    // object storage. It is sent back to the peer, and the storage credentials are not.
+    @RestForm
+    @PartType(MediaType.TEXT_PLAIN)
+    public String fanoutToken;
 }
@@ -15,9 +15,6 @@
  */
 package io.cryostat.reports;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
-
 import io.cryostat.core.diagnostic.HeapDumpReportGenerator;
 import io.cryostat.core.reports.InterruptibleReportGenerator;
 import io.cryostat.core.util.RuleFilterParser;
@@ -31,26 +28,20 @@ public class Producers {
 
     @Produces
     // RequestScoped so that each individual report generation request has its own interruptible
-    // generator with an independent task queueing thread which dispatches to the shared common pool
+    // generator with an independent task queueing thread which dispatches to an executor sized for
+    // this request by the AnalysisLease
     @RequestScoped
-    InterruptibleReportGenerator produceReportGenerator() {
-        boolean singleThread =
-                Runtime.getRuntime().availableProcessors() < 2
-                        || Boolean.getBoolean(ReportResource.SINGLETHREAD_PROPERTY);
-        return new InterruptibleReportGenerator(
-                singleThread ? Executors.newSingleThreadExecutor() : ForkJoinPool.commonPool());
+    InterruptibleReportGenerator produceReportGenerator(AnalysisLease lease) {
+        return new InterruptibleReportGenerator(lease.executor());
     }
 
     @Produces
     // RequestScoped so that each individual report generation request has its own interruptible
-    // generator with an independent task queueing thread which dispatches to the shared common pool
+    // generator with an independent task queueing thread which dispatches to an executor sized for
+    // this request by the AnalysisLease
     @RequestScoped
-    HeapDumpReportGenerator produceHeapDumpReportGenerator() {
-        boolean singleThread =
-                Runtime.getRuntime().availableProcessors() < 2
-                        || Boolean.getBoolean(ReportResource.SINGLETHREAD_PROPERTY);
-        return new HeapDumpReportGenerator(
-                singleThread ? Executors.newSingleThreadExecutor() : ForkJoinPool.commonPool());
+    HeapDumpReportGenerator produceHeapDumpReportGenerator(AnalysisLease lease) {
+        return new HeapDumpReportGenerator(lease.executor());
     }
 
     @Produces
@@ -28,4 +28,8 @@ public class RecordingFormData {
     @RestForm
     @PartType(MediaType.TEXT_PLAIN)
     public String filter;
+
+    @RestForm
+    @PartType(MediaType.TEXT_PLAIN)
+    public String jvmId;
 }
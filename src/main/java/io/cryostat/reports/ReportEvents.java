@@ -0,0 +1,221 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR events covering the lifecycle of an analysis request, so that the reports service can itself
+// be profiled with Cryostat and CPU or GC activity attributed to specific requests and rules. All
+// events of one request share its requestId.
+final class ReportEvents {
+
+    static final String PREFIX = "io.cryostat.reports.";
+
+    private ReportEvents() {}
+
+    @Name(PREFIX + "UploadReceived")
+    @Label("Upload Received")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class UploadReceived extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("File Name")
+        public String fileName;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+    }
+
+    @Name(PREFIX + "Decompression")
+    @Label("Decompression")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class Decompression extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Compressed Size")
+        @DataAmount
+        public long compressedSize;
+
+        @Label("Decompressed Size")
+        @DataAmount
+        public long decompressedSize;
+
+        @Label("In Memory")
+        public boolean inMemory;
+    }
+
+    @Name(PREFIX + "PresignedDownload")
+    @Label("Presigned Download")
+    @Description("Connection to the object storage and, for heap dumps, the copy to a local file")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class PresignedDownload extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Host")
+        public String host;
+
+        @Label("Content Length")
+        @DataAmount
+        public long contentLength;
+
+        @Label("Bytes Copied")
+        @DataAmount
+        public long bytesCopied;
+    }
+
+    @Name(PREFIX + "Parse")
+    @Label("Parse")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class Parse extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Source")
+        public String source;
+    }
+
+    @Name(PREFIX + "Analysis")
+    @Label("Analysis")
+    @Description("Complete parse and evaluation of a recording or heap dump")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class Analysis extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Kind")
+        public String kind;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+
+        @Label("Threads")
+        public int threads;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name(PREFIX + "RuleEvaluation")
+    @Label("Rule Evaluation")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class RuleEvaluation extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Rule")
+        public String ruleId;
+
+        @Label("Score")
+        public double score;
+    }
+
+    @Name(PREFIX + "Serialization")
+    @Label("Serialization")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class Serialization extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Media Type")
+        public String mediaType;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+    }
+
+    @Name(PREFIX + "Cleanup")
+    @Label("Cleanup")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class Cleanup extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("File")
+        public String file;
+
+        @Label("Deleted")
+        public boolean deleted;
+    }
+
+    @Name(PREFIX + "Cancellation")
+    @Label("Cancellation")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class Cancellation extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Reason")
+        public String reason;
+    }
+
+    @Name(PREFIX + "AdmissionRejection")
+    @Label("Admission Rejection")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class AdmissionRejection extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Reason")
+        public String reason;
+
+        @Label("Size")
+        @DataAmount
+        public long size;
+
+        @Label("Status")
+        public int status;
+    }
+
+    @Name(PREFIX + "PeerAnalysis")
+    @Label("Peer Analysis")
+    @Category({"Cryostat", "Reports"})
+    @StackTrace(false)
+    public static class PeerAnalysis extends Event {
+        @Label("Request ID")
+        public String requestId;
+
+        @Label("Peer")
+        public String peer;
+
+        @Label("Rules")
+        public int rules;
+
+        @Label("Status")
+        public int status;
+    }
+}
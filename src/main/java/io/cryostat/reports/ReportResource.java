@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
@@ -32,8 +33,14 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -51,31 +58,37 @@ import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
 import io.cryostat.core.util.RuleFilterParser;
 import io.cryostat.libcryostat.sys.FileSystem;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.runtime.StartupEvent;
 import io.smallrye.common.annotation.Blocking;
 import io.vertx.ext.web.RoutingContext;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.BeanParam;
 import jakarta.ws.rs.ClientErrorException;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.InternalServerErrorException;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.ServerErrorException;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.Timeout;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 import org.openjdk.jmc.common.io.IOToolkit;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
 import org.openjdk.jmc.flightrecorder.rules.IRule;
 
 @Path("/")
@@ -117,8 +130,16 @@ public class ReportResource {
     @Inject InterruptibleReportGenerator generator;
     @Inject HeapDumpReportGenerator heapDumpGenerator;
     @Inject RuleFilterParser rfp;
+    @Inject RuleEvaluator evaluator;
+    @Inject IncrementalAnalysisCache incremental;
+    @Inject Warmup warmup;
+    @Inject AnalysisQueue queue;
+    @Inject AnalysisLease lease;
+    @Inject UploadBuffers uploadBuffers;
+    @Inject PeerFanout fanout;
+    @Inject ResultWriter resultWriter;
+    @Inject RequestId requestId;
     @Inject FileSystem fs;
-    @Inject ObjectMapper mapper;
     @Inject Logger logger;
 
     void onStart(@Observes StartupEvent ev) {
@@ -136,25 +157,64 @@ public class ReportResource {
     @Produces(MediaType.TEXT_PLAIN)
     public void healthCheck() {}
 
-    @Bulkhead(value = 1)
+    @Path("ready")
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response readinessCheck() {
+        return Response.status(
+                        warmup.isComplete()
+                                ? Response.Status.NO_CONTENT
+                                : Response.Status.SERVICE_UNAVAILABLE)
+                .build();
+    }
+
+    @Path("queue")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public AnalysisQueue.Stats queueStats() {
+        return queue.stats();
+    }
+
+    // Serves a recording under analysis to the peers which evaluate a part of its rules
+    @Path(PeerFanout.PATH + "/{id}")
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response getFanoutRecording(
+            @PathParam("id") String id, @HeaderParam(PeerFanout.TOKEN_HEADER) String token) {
+        java.nio.file.Path file = fanout.file(id, token);
+        if (file == null) {
+            throw new NotFoundException();
+        }
+        return Response.ok(file.toFile()).build();
+    }
+
+    @Queued
     @Timeout(value = 29000, unit = ChronoUnit.MILLIS)
     @Path("remote_report")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({
+        MediaType.APPLICATION_JSON,
+        ResultWriter.APPLICATION_CBOR,
+        ResultWriter.APPLICATION_SMILE
+    })
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @POST
-    public String getReportFromPresigned(RoutingContext ctx, @BeanParam PresignedFormData form)
+    public Response getReportFromPresigned(
+            RoutingContext ctx, @Context Request request, @BeanParam PresignedFormData form)
             throws IOException, URISyntaxException {
 
+        CancellationToken token = cancellable(ctx);
         logger.debugv("Attempting to download presigned recording from {0}", form.uri);
         HttpURLConnection httpConn = (HttpURLConnection) form.uri.toURL().openConnection();
-        try (var stream = getPresignedObjectStream(httpConn)) {
+        token.onCancel(httpConn::disconnect);
+        try (var stream = getPresignedObjectStream(httpConn, token, form.fanoutToken)) {
 
             Predicate<IRule> predicate = rfp.parse(form.filter);
             Future<Map<String, AnalysisResult>> evalMapFuture = null;
 
-            evalMapFuture = generator.generateEvalMapInterruptibly(stream, predicate);
-            ctxHelper(ctx, evalMapFuture);
-            return mapper.writeValueAsString(evalMapFuture.get());
+            ReportEvents.Analysis event = beginAnalysis("recording");
+            evalMapFuture =
+                    token.register(generator.generateEvalMapInterruptibly(stream, predicate));
+            return resultWriter.write(request, await(event, evalMapFuture));
         } catch (ExecutionException | InterruptedException e) {
             logger.error(e);
             throw new InternalServerErrorException(e);
@@ -162,22 +222,52 @@ public class ReportResource {
             logger.error(e);
             throw e;
         } finally {
+            token.complete();
             httpConn.disconnect();
         }
     }
 
     @Blocking
-    @Bulkhead(value = 1)
+    @Queued
     @Timeout(value = 29000, unit = ChronoUnit.MILLIS)
     @Path("report")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({
+        MediaType.APPLICATION_JSON,
+        ResultWriter.APPLICATION_CBOR,
+        ResultWriter.APPLICATION_SMILE
+    })
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @POST
-    public String getReport(RoutingContext ctx, @BeanParam RecordingFormData form)
+    public Response getReport(
+            RoutingContext ctx, @Context Request request, @BeanParam RecordingFormData form)
             throws IOException {
         FileUpload upload = form.file;
+        CancellationToken token = cancellable(ctx);
+
+        if (StringUtils.isBlank(form.jvmId)
+                && uploadBuffers.accepts(upload.uploadedFile(), upload.size())) {
+            long start = System.nanoTime();
+            ReportEvents.Decompression decompression = new ReportEvents.Decompression();
+            decompression.begin();
+            try (UploadBuffers.Buffer buffer = uploadBuffers.read(upload.uploadedFile())) {
+                if (buffer != null) {
+                    decompression.requestId = requestId.get();
+                    decompression.compressedSize = upload.size();
+                    decompression.decompressedSize = buffer.length();
+                    decompression.inMemory = true;
+                    decompression.commit();
+                    if (System.nanoTime() - start
+                            > TimeUnit.MILLISECONDS.toNanos(Long.parseLong(timeoutMs))) {
+                        // nothing has read from the buffer yet
+                        buffer.markReusable();
+                        throw new ServerErrorException(Response.Status.GATEWAY_TIMEOUT);
+                    }
+                    return getReportInMemory(request, token, form, buffer, start);
+                }
+            }
+        }
 
-        Pair<java.nio.file.Path, Pair<Long, Long>> uploadResult = handleUpload(upload);
+        Pair<java.nio.file.Path, Pair<Long, Long>> uploadResult = handleUpload(upload, token);
         java.nio.file.Path file = uploadResult.getLeft();
         long start = uploadResult.getRight().getLeft();
 
@@ -187,20 +277,272 @@ public class ReportResource {
         Predicate<IRule> predicate = rfp.parse(form.filter);
         Future<Map<String, AnalysisResult>> evalMapFuture = null;
 
-        try (var stream = fs.newInputStream(file)) {
-            evalMapFuture = generator.generateEvalMapInterruptibly(stream, predicate);
-            ctxHelper(ctx, evalMapFuture);
-            return mapper.writeValueAsString(evalMapFuture.get());
+        if (StringUtils.isNotBlank(form.jvmId)) {
+            try {
+                logger.debugv("Received incremental analysis request for {0}", form.jvmId);
+                ReportEvents.Analysis event = beginAnalysis("incremental");
+                evalMapFuture =
+                        token.register(
+                                incremental.analyze(
+                                        form.jvmId, file, predicate, lease.threads(), token));
+                return resultWriter.write(request, await(event, evalMapFuture));
+            } catch (ExecutionException | InterruptedException e) {
+                throw new InternalServerErrorException(e);
+            } finally {
+                cleanupHelper(token, evalMapFuture, file, upload.fileName(), start);
+            }
+        }
+
+        if (fanout.accepts(file.toFile().length())) {
+            ReportEvents.Analysis event = beginAnalysis("fanout");
+            try {
+                Map<String, AnalysisResult> result =
+                        fanout.analyze(
+                                file,
+                                predicate,
+                                tenant(ctx),
+                                token,
+                                start,
+                                p -> analyzeFile(file, p, token));
+                event.succeeded = true;
+                return resultWriter.write(request, result);
+            } catch (ExecutionException | InterruptedException e) {
+                throw new InternalServerErrorException(e);
+            } finally {
+                event.commit();
+                cleanupHelper(token, null, file, upload.fileName(), start);
+            }
+        }
+
+        try (var stream = token.guard(fs.newInputStream(file))) {
+            ReportEvents.Analysis event = beginAnalysis("recording");
+            evalMapFuture =
+                    token.register(generator.generateEvalMapInterruptibly(stream, predicate));
+            return resultWriter.write(request, await(event, evalMapFuture));
         } catch (ExecutionException | InterruptedException e) {
             throw new InternalServerErrorException(e);
         } finally {
-            cleanupHelper(evalMapFuture, file, upload.fileName(), start);
+            cleanupHelper(token, evalMapFuture, file, upload.fileName(), start);
         }
     }
 
-    private InputStream getPresignedObjectStream(HttpURLConnection httpConn)
+    private Map<String, AnalysisResult> analyzeFile(
+            java.nio.file.Path file, Predicate<IRule> predicate, CancellationToken token)
+            throws IOException, ExecutionException, InterruptedException {
+        Future<Map<String, AnalysisResult>> future = null;
+        try (var stream = token.guard(fs.newInputStream(file))) {
+            future = token.register(generator.generateEvalMapInterruptibly(stream, predicate));
+            return future.get();
+        } finally {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private Response getReportInMemory(
+            Request request,
+            CancellationToken token,
+            RecordingFormData form,
+            UploadBuffers.Buffer buffer,
+            long start)
+            throws IOException {
+        FileUpload upload = form.file;
+        logger.infof(
+                "Received request for %s (%d bytes, %d bytes uncompressed), analyzing in memory",
+                upload.fileName(), upload.size(), buffer.length());
+        uploadReceived(upload);
+        assertContentLength(buffer.length());
+        lease.size(buffer.length());
+
+        if (StringUtils.isNotBlank(form.filter)) {
+            logger.debugv("Received request with filter: {0}", form.filter);
+        }
+        Predicate<IRule> predicate = rfp.parse(form.filter);
+        Future<Map<String, AnalysisResult>> evalMapFuture = null;
+
+        try (var stream = token.guard(buffer.newInputStream())) {
+            ReportEvents.Analysis event = beginAnalysis("recording");
+            evalMapFuture =
+                    token.register(generator.generateEvalMapInterruptibly(stream, predicate));
+            Map<String, AnalysisResult> result = await(event, evalMapFuture);
+            buffer.markReusable();
+            return resultWriter.write(request, result);
+        } catch (ExecutionException | InterruptedException e) {
+            throw new InternalServerErrorException(e);
+        } finally {
+            token.complete();
+            if (evalMapFuture != null) {
+                evalMapFuture.cancel(true);
+            }
+            logger.infof(
+                    "Completed request for %s after %dms",
+                    upload.fileName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    @Blocking
+    @Queued
+    @Timeout(value = 29000, unit = ChronoUnit.MILLIS)
+    @Path("compare")
+    @Produces({
+        MediaType.APPLICATION_JSON,
+        ResultWriter.APPLICATION_CBOR,
+        ResultWriter.APPLICATION_SMILE
+    })
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @POST
+    public Response getComparison(
+            RoutingContext ctx, @Context Request request, @BeanParam ComparisonFormData form)
+            throws IOException {
+        long start = System.nanoTime();
+        CancellationToken token = cancellable(ctx);
+        List<java.nio.file.Path> files = new ArrayList<>();
+        List<HttpURLConnection> connections = new ArrayList<>();
+        Future<Map<String, AnalysisResult>> baselineFuture = null;
+        Future<Map<String, AnalysisResult>> candidateFuture = null;
+
+        if (StringUtils.isNotBlank(form.filter)) {
+            logger.debugv("Received comparison request with filter: {0}", form.filter);
+        }
+        Predicate<IRule> predicate = rfp.parse(form.filter);
+
+        try {
+            ComparisonSource baseline =
+                    comparisonSource(
+                            "baseline", form.baseline, form.baselineUri, files, connections, token);
+            ComparisonSource candidate =
+                    comparisonSource(
+                            "candidate",
+                            form.candidate,
+                            form.candidateUri,
+                            files,
+                            connections,
+                            token);
+            // both parsed recordings are held in memory at the same time
+            assertContentLength(Math.max(0, baseline.length()) + Math.max(0, candidate.length()));
+
+            // both recordings are parsed and evaluated concurrently, each in a single pass
+            int threads = Math.max(1, lease.threads() / 2);
+            ReportEvents.Analysis event = beginAnalysis("comparison");
+            baselineFuture =
+                    token.register(
+                            evaluator.submit(
+                                    "baseline", baseline.loader(), predicate, threads, token));
+            candidateFuture =
+                    token.register(
+                            evaluator.submit(
+                                    "candidate", candidate.loader(), predicate, threads, token));
+
+            Map<String, AnalysisResult> baselineResults;
+            Map<String, AnalysisResult> candidateResults;
+            try {
+                baselineResults = baselineFuture.get();
+                candidateResults = candidateFuture.get();
+                event.succeeded = true;
+            } finally {
+                event.commit();
+            }
+            Map<String, RuleComparison> comparison = new TreeMap<>();
+            Set<String> ruleIds = new HashSet<>(baselineResults.keySet());
+            ruleIds.addAll(candidateResults.keySet());
+            for (String ruleId : ruleIds) {
+                comparison.put(
+                        ruleId,
+                        RuleComparison.of(
+                                baselineResults.get(ruleId), candidateResults.get(ruleId)));
+            }
+            return resultWriter.write(request, comparison);
+        } catch (ExecutionException | InterruptedException e) {
+            logger.error(e);
+            throw new InternalServerErrorException(e);
+        } finally {
+            token.complete();
+            if (baselineFuture != null) {
+                baselineFuture.cancel(true);
+            }
+            if (candidateFuture != null) {
+                candidateFuture.cancel(true);
+            }
+            connections.forEach(HttpURLConnection::disconnect);
+            for (java.nio.file.Path file : files) {
+                delete(file);
+            }
+            logger.infof(
+                    "Completed comparison request after %dms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private record ComparisonSource(long length, Callable<IItemCollection> loader) {}
+
+    private ComparisonSource comparisonSource(
+            String name,
+            FileUpload upload,
+            URI uri,
+            List<java.nio.file.Path> files,
+            List<HttpURLConnection> connections,
+            CancellationToken token)
+            throws IOException {
+        if ((upload == null) == (uri == null)) {
+            throw new BadRequestException(
+                    String.format("Exactly one of %s or %sUri must be provided", name, name));
+        }
+        if (upload != null) {
+            java.nio.file.Path file = handleUpload(upload, token).getLeft();
+            files.add(file);
+            return new ComparisonSource(
+                    file.toFile().length(),
+                    () -> {
+                        try (InputStream stream = token.guard(fs.newInputStream(file))) {
+                            return JfrLoaderToolkit.loadEvents(stream);
+                        }
+                    });
+        }
+        logger.debugv("Attempting to download presigned {0} recording from {1}", name, uri);
+        HttpURLConnection httpConn = (HttpURLConnection) uri.toURL().openConnection();
+        connections.add(httpConn);
+        token.onCancel(httpConn::disconnect);
+        InputStream stream = getPresignedObjectStream(httpConn, token);
+        return new ComparisonSource(
+                httpConn.getContentLengthLong(),
+                () -> {
+                    try (stream) {
+                        return JfrLoaderToolkit.loadEvents(stream);
+                    }
+                });
+    }
+
+    private InputStream getPresignedObjectStream(
+            HttpURLConnection httpConn, CancellationToken token)
+            throws IOException, ProtocolException {
+        return getPresignedObjectStream(httpConn, token, null);
+    }
+
+    // A fan-out token marks a recording served by a peer, which must not receive the storage
+    // credentials, and does not need the storage TLS settings
+    private InputStream getPresignedObjectStream(
+            HttpURLConnection httpConn, CancellationToken token, String fanoutToken)
             throws IOException, ProtocolException {
+        ReportEvents.PresignedDownload event = new ReportEvents.PresignedDownload();
+        event.requestId = requestId.get();
+        event.host = httpConn.getURL().getHost();
+        event.begin();
         httpConn.setRequestMethod("GET");
+        if (StringUtils.isNotBlank(fanoutToken)) {
+            httpConn.setRequestProperty(PeerFanout.TOKEN_HEADER, fanoutToken);
+        } else {
+            configureStorageConnection(httpConn);
+        }
+        event.contentLength = httpConn.getContentLengthLong();
+        assertContentLength(event.contentLength);
+        lease.size(event.contentLength);
+        InputStream stream = token.guard(httpConn.getInputStream());
+        event.commit();
+        return stream;
+    }
+
+    private void configureStorageConnection(HttpURLConnection httpConn) {
         if (httpConn instanceof HttpsURLConnection) {
             HttpsURLConnection httpsConn = (HttpsURLConnection) httpConn;
             if (storageTlsIgnore) {
@@ -243,29 +585,39 @@ public class ReportResource {
                     "Authorization",
                     String.format("%s %s", storageAuthMethod.get(), storageAuth.get()));
         }
-        assertContentLength(httpConn.getContentLengthLong());
-        return httpConn.getInputStream();
     }
 
     @Blocking
-    @Bulkhead(value = 1)
+    @Queued
     @Timeout(value = 29000, unit = ChronoUnit.MILLIS)
     @Path("heapdump/remote_report")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({
+        MediaType.APPLICATION_JSON,
+        ResultWriter.APPLICATION_CBOR,
+        ResultWriter.APPLICATION_SMILE
+    })
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @POST
-    public String getHeapDumpReportFromPresigned(
-            RoutingContext ctx, @BeanParam PresignedHeapDumpFormData form)
+    public Response getHeapDumpReportFromPresigned(
+            RoutingContext ctx, @Context Request request, @BeanParam PresignedHeapDumpFormData form)
             throws IOException, URISyntaxException {
+        CancellationToken token = cancellable(ctx);
         HttpURLConnection httpConn = (HttpURLConnection) form.uri.toURL().openConnection();
+        token.onCancel(httpConn::disconnect);
         java.nio.file.Path tmpFile = Files.createTempFile("", ".hprof");
-        try (var stream = getPresignedObjectStream(httpConn)) {
+        token.onCancel(() -> fs.deleteIfExists(tmpFile));
+        try (var stream = getPresignedObjectStream(httpConn, token)) {
             // Copy the heap dump from storage to a temporary file for analysis
-            Files.copy(stream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            ReportEvents.PresignedDownload download = new ReportEvents.PresignedDownload();
+            download.requestId = requestId.get();
+            download.host = form.uri.getHost();
+            download.begin();
+            download.bytesCopied = Files.copy(stream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            download.commit();
             Future<HeapDumpAnalysis> evalFuture = null;
-            evalFuture = heapDumpGenerator.generate(tmpFile, heapDumpMemoryLimit);
-            ctxHelper(ctx, evalFuture);
-            return mapper.writeValueAsString(evalFuture.get());
+            ReportEvents.Analysis event = beginAnalysis("heapdump");
+            evalFuture = token.register(heapDumpGenerator.generate(tmpFile, heapDumpMemoryLimit));
+            return resultWriter.write(request, await(event, evalFuture));
         } catch (ExecutionException | InterruptedException e) {
             logger.error(e);
             throw new InternalServerErrorException(e);
@@ -273,36 +625,43 @@ public class ReportResource {
             logger.error(e);
             throw e;
         } finally {
+            token.complete();
             httpConn.disconnect();
-            Files.deleteIfExists(tmpFile);
+            delete(tmpFile);
         }
     }
 
     @Blocking
-    @Bulkhead(value = 1)
+    @Queued
     @Timeout(value = 29000, unit = ChronoUnit.MILLIS)
     @Path("heapdump/report")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({
+        MediaType.APPLICATION_JSON,
+        ResultWriter.APPLICATION_CBOR,
+        ResultWriter.APPLICATION_SMILE
+    })
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @POST
-    public String getHeapDumpReport(RoutingContext ctx, @BeanParam HeapDumpFormData form)
+    public Response getHeapDumpReport(
+            RoutingContext ctx, @Context Request request, @BeanParam HeapDumpFormData form)
             throws IOException {
         FileUpload upload = form.file;
+        CancellationToken token = cancellable(ctx);
 
-        Pair<java.nio.file.Path, Pair<Long, Long>> uploadResult = handleUpload(upload);
+        Pair<java.nio.file.Path, Pair<Long, Long>> uploadResult = handleUpload(upload, token);
         java.nio.file.Path file = uploadResult.getLeft();
         long start = uploadResult.getRight().getLeft();
 
         Future<HeapDumpAnalysis> evalFuture = null;
 
         try {
-            evalFuture = heapDumpGenerator.generate(file, heapDumpMemoryLimit);
-            ctxHelper(ctx, evalFuture);
-            return mapper.writeValueAsString(evalFuture.get());
+            ReportEvents.Analysis event = beginAnalysis("heapdump");
+            evalFuture = token.register(heapDumpGenerator.generate(file, heapDumpMemoryLimit));
+            return resultWriter.write(request, await(event, evalFuture));
         } catch (ExecutionException | InterruptedException e) {
             throw new InternalServerErrorException(e);
         } finally {
-            cleanupHelper(evalFuture, file, upload.fileName(), start);
+            cleanupHelper(token, evalFuture, file, upload.fileName(), start);
         }
     }
 
@@ -324,22 +683,36 @@ public class ReportResource {
                     "Rejecting request for file of {0} bytes. Estimated maximum handleable size is"
                             + " {1} bytes.",
                     length, maxHandleableSize);
+            ReportEvents.AdmissionRejection event = new ReportEvents.AdmissionRejection();
+            event.requestId = requestId.get();
+            event.reason = "memory";
+            event.size = length;
+            event.status = Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode();
+            event.commit();
             throw new ClientErrorException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
         }
     }
 
-    private Pair<java.nio.file.Path, Pair<Long, Long>> handleUpload(FileUpload upload)
-            throws IOException {
+    private Pair<java.nio.file.Path, Pair<Long, Long>> handleUpload(
+            FileUpload upload, CancellationToken token) throws IOException {
         java.nio.file.Path file = upload.uploadedFile();
+        token.onCancel(() -> fs.deleteIfExists(upload.uploadedFile()));
         long timeout = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(timeoutMs));
         long start = System.nanoTime();
         long now = start;
         long elapsed = 0;
 
         logger.infof("Received request for %s (%d bytes)", upload.fileName(), upload.size());
+        uploadReceived(upload);
 
         if (IOToolkit.isCompressedFile(file.toFile())) {
-            file = decompress(file);
+            ReportEvents.Decompression event = new ReportEvents.Decompression();
+            event.requestId = requestId.get();
+            event.compressedSize = upload.size();
+            event.begin();
+            file = decompress(file, token);
+            event.decompressedSize = file.toFile().length();
+            event.commit();
             now = System.nanoTime();
             elapsed = now - start;
             logger.infof(
@@ -350,6 +723,7 @@ public class ReportResource {
         }
 
         assertContentLength(file.toFile().length());
+        lease.size(file.toFile().length());
 
         now = System.nanoTime();
         elapsed = now - start;
@@ -359,29 +733,47 @@ public class ReportResource {
         return Pair.of(file, Pair.of(start, elapsed));
     }
 
-    private void ctxHelper(RoutingContext ctx, Future<?> ff) {
+    // Cancels the request when its client goes away, before or during the analysis
+    private CancellationToken cancellable(RoutingContext ctx) {
+        CancellationToken token = new CancellationToken(requestId.get(), logger);
+        token.onCancel(lease.reservation());
         ctx.response()
                 .exceptionHandler(
                         e -> {
                             logger.error(e);
-                            ff.cancel(true);
+                            token.cancel("response error");
                         });
         ctx.request()
                 .exceptionHandler(
                         e -> {
                             logger.error(e);
-                            ff.cancel(true);
+                            token.cancel("request error");
                         });
-        ctx.addEndHandler().onComplete(ar -> ff.cancel(true));
+        ctx.addEndHandler().onComplete(ar -> token.cancel("request ended"));
+        return token;
+    }
+
+    // Peers queue the requests they receive from this instance on behalf of the original tenant
+    private String tenant(RoutingContext ctx) {
+        return StringUtils.firstNonBlank(
+                ctx.request().getHeader(queue.tenantHeader()),
+                ctx.request().remoteAddress() != null
+                        ? ctx.request().remoteAddress().host()
+                        : null);
     }
 
     private void cleanupHelper(
-            Future<?> future, java.nio.file.Path file, String fileName, long start)
+            CancellationToken token,
+            Future<?> future,
+            java.nio.file.Path file,
+            String fileName,
+            long start)
             throws IOException {
+        token.complete();
         if (future != null) {
             future.cancel(true);
         }
-        boolean deleted = fs.deleteIfExists(file);
+        boolean deleted = delete(file);
         if (deleted) {
             logger.infof("Deleted %s", file);
         } else {
@@ -392,13 +784,59 @@ public class ReportResource {
                 fileName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
     }
 
-    private java.nio.file.Path decompress(java.nio.file.Path file) throws IOException {
+    private boolean delete(java.nio.file.Path file) throws IOException {
+        ReportEvents.Cleanup event = new ReportEvents.Cleanup();
+        event.requestId = requestId.get();
+        event.file = file.toString();
+        event.begin();
+        try {
+            event.deleted = fs.deleteIfExists(file);
+            return event.deleted;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private void uploadReceived(FileUpload upload) {
+        ReportEvents.UploadReceived event = new ReportEvents.UploadReceived();
+        event.requestId = requestId.get();
+        event.fileName = upload.fileName();
+        event.size = upload.size();
+        event.commit();
+    }
+
+    // The generators parse and evaluate in one opaque step, so their analyses are recorded as a
+    // single event. Per-rule events are only recorded by the RuleEvaluator paths.
+    private ReportEvents.Analysis beginAnalysis(String kind) {
+        ReportEvents.Analysis event = new ReportEvents.Analysis();
+        event.requestId = requestId.get();
+        event.kind = kind;
+        event.size = lease.bytes();
+        event.threads = lease.threads();
+        event.begin();
+        return event;
+    }
+
+    private static <T> T await(ReportEvents.Analysis event, Future<T> future)
+            throws ExecutionException, InterruptedException {
+        try {
+            T result = future.get();
+            event.succeeded = true;
+            return result;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private java.nio.file.Path decompress(java.nio.file.Path file, CancellationToken token)
+            throws IOException {
         java.nio.file.Path tmp = Files.createTempFile(null, null);
-        try (var stream = IOToolkit.openUncompressedStream(file.toFile())) {
+        token.onCancel(() -> fs.deleteIfExists(tmp));
+        try (var stream = token.guard(IOToolkit.openUncompressedStream(file.toFile()))) {
             fs.copy(stream, tmp, StandardCopyOption.REPLACE_EXISTING);
             return tmp;
         } finally {
-            fs.deleteIfExists(file);
+            delete(file);
         }
     }
 
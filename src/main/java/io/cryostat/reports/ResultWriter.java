@@ -0,0 +1,126 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.Variant;
+
+// Serializes analysis results directly to the response output stream, in JSON or in one of the
+// binary Jackson encodings if the client accepts it. The encoding is chosen by JAX-RS content
+// negotiation, and the binary mappers are copies of the application's JSON mapper, so they share
+// its configuration. Response compression is applied by the HTTP layer according to the client's
+// Accept-Encoding, see quarkus.http.enable-compression.
+@ApplicationScoped
+public class ResultWriter {
+
+    static final String APPLICATION_CBOR = "application/cbor";
+    static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+    static final MediaType CBOR_TYPE = MediaType.valueOf(APPLICATION_CBOR);
+    static final MediaType SMILE_TYPE = MediaType.valueOf(APPLICATION_SMILE);
+
+    // JSON first, so that it is chosen when the client accepts any type
+    static final List<Variant> VARIANTS =
+            Variant.mediaTypes(MediaType.APPLICATION_JSON_TYPE, CBOR_TYPE, SMILE_TYPE).build();
+
+    @Inject ObjectMapper mapper;
+    @Inject RequestId requestId;
+
+    private ObjectWriter jsonWriter;
+    private ObjectWriter cborWriter;
+    private ObjectWriter smileWriter;
+
+    @PostConstruct
+    void init() {
+        jsonWriter = mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        cborWriter =
+                mapper.copyWith(new CBORFactory())
+                        .writer()
+                        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        smileWriter =
+                mapper.copyWith(new SmileFactory())
+                        .writer()
+                        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    Response write(Request request, Object result) {
+        // the resource's @Produces has already rejected requests accepting none of the variants
+        Variant variant = request.selectVariant(VARIANTS);
+        MediaType type = variant != null ? variant.getMediaType() : MediaType.APPLICATION_JSON_TYPE;
+        ObjectWriter writer;
+        if (type.equals(CBOR_TYPE)) {
+            writer = cborWriter;
+        } else if (type.equals(SMILE_TYPE)) {
+            writer = smileWriter;
+        } else {
+            writer = jsonWriter;
+        }
+        // the entity may be written after the request context has been deactivated
+        String id = requestId.get();
+        StreamingOutput entity =
+                output -> {
+                    ReportEvents.Serialization event = new ReportEvents.Serialization();
+                    event.requestId = id;
+                    event.mediaType = type.toString();
+                    event.begin();
+                    CountingOutputStream counting = new CountingOutputStream(output);
+                    try {
+                        writer.writeValue(counting, result);
+                    } finally {
+                        event.size = counting.count;
+                        event.commit();
+                    }
+                };
+        // variants() also sets Vary: Accept for caches
+        return Response.ok(entity, type).variants(VARIANTS).build();
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.quarkus.runtime.annotations.RegisterForReflection;
+
+// Scores of a single rule for a baseline and a candidate recording. The delta is only present if
+// the rule produced a score (rather than an ignored/not applicable result) for both recordings.
+@RegisterForReflection
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record RuleComparison(
+        String name, String topic, double baseline, double candidate, Double delta) {
+
+    static RuleComparison of(AnalysisResult baseline, AnalysisResult candidate) {
+        AnalysisResult described = candidate != null ? candidate : baseline;
+        double b = baseline != null ? baseline.getScore() : -1;
+        double c = candidate != null ? candidate.getScore() : -1;
+        return new RuleComparison(
+                described.getName(), described.getTopic(), b, c, b >= 0 && c >= 0 ? c - b : null);
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.function.Predicate;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.util.IPreferenceValueProvider;
+import org.openjdk.jmc.flightrecorder.rules.DependsOn;
+import org.openjdk.jmc.flightrecorder.rules.IRecordingSetting;
+import org.openjdk.jmc.flightrecorder.rules.IResult;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+import org.openjdk.jmc.flightrecorder.rules.ResultProvider;
+import org.openjdk.jmc.flightrecorder.rules.ResultToolkit;
+import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
+import org.openjdk.jmc.flightrecorder.rules.Severity;
+import org.openjdk.jmc.flightrecorder.rules.TypedResult;
+import org.openjdk.jmc.flightrecorder.rules.internal.IRuleProvider;
+import org.openjdk.jmc.flightrecorder.rules.util.RulesToolkit;
+
+// Evaluates the same rules as the InterruptibleReportGenerator against a parsed item collection,
+// which the caller may have assembled itself, for example from cached chunks. Rules excluded by
+// the filter predicate are still reported, with an NA score, as the generator does. Filtered views
+// and aggregates are memoized across the rules of one evaluation.
+@ApplicationScoped
+public class RuleEvaluator {
+
+    @Inject AnalysisParallelism parallelism;
+    @Inject ObjectMapper mapper;
+    @Inject Logger logger;
+
+    private volatile Collection<IRule> rules;
+
+    // The rules of the JMC registry and the custom rules that cryostat-core registers as services.
+    // The registry only searches the class loader of JMC, so the services are also looked up
+    // through the application class loader. A rule that fails to load fails the analysis, rather
+    // than silently dropping out of every report.
+    Collection<IRule> rules() {
+        Collection<IRule> result = rules;
+        if (result == null) {
+            Map<String, IRule> found = new LinkedHashMap<>();
+            RuleRegistry.getRules().forEach(r -> found.put(r.getId(), r));
+            ClassLoader loader = getClass().getClassLoader();
+            ServiceLoader.load(IRule.class, loader).forEach(r -> found.putIfAbsent(r.getId(), r));
+            ServiceLoader.load(IRuleProvider.class, loader)
+                    .forEach(p -> p.getRules().forEach(r -> found.putIfAbsent(r.getId(), r)));
+            logger.debugv("Evaluating {0} rules", found.size());
+            result = List.copyOf(found.values());
+            rules = result;
+        }
+        return result;
+    }
+
+    // Loads and evaluates on a thread of the shared analysis pool, so that the returned future can
+    // be interrupted like the futures returned by the generators. That thread counts as one of the
+    // given threads, so the analysis uses no more of the pool than the generators would.
+    Future<Map<String, AnalysisResult>> submit(
+            String source,
+            Callable<IItemCollection> loader,
+            Predicate<IRule> predicate,
+            int threads,
+            CancellationToken token) {
+        return parallelism
+                .pool()
+                .submit(
+                        () -> {
+                            ReportEvents.Parse parse = new ReportEvents.Parse();
+                            parse.requestId = token.requestId();
+                            parse.source = source;
+                            parse.begin();
+                            IItemCollection items = loader.call();
+                            parse.commit();
+                            token.throwIfCancelled();
+                            return evaluate(items, predicate, threads, token);
+                        });
+    }
+
+    // Evaluates like RulesToolkit.evaluateParallel, but on the shared analysis pool rather than on
+    // freshly started threads, and records a RuleEvaluation event for each rule. Dependent rules
+    // read the results of the rules they depend on, so they are evaluated in a later round.
+    Map<String, AnalysisResult> evaluate(
+            IItemCollection items, Predicate<IRule> predicate, int threads, CancellationToken token)
+            throws InterruptedException {
+        // shared by all rules of this evaluation only, as the memoized results hold on to events
+        items = new MemoizingItemCollection(items);
+        Collection<IRule> rules = rules();
+        ResultProvider resultProvider = new ResultProvider();
+        Map<String, IResult> results = new HashMap<>();
+        Map<String, IRule> pending = new LinkedHashMap<>();
+        for (IRule rule : rules) {
+            if (!predicate.test(rule)) {
+                continue;
+            }
+            if (!RulesToolkit.matchesEventAvailabilityMap(items, rule.getRequiredEvents())) {
+                results.put(
+                        rule.getId(),
+                        notApplicable(rule, RulesToolkit.getIgnoreReason(items, rule)));
+            } else {
+                pending.put(rule.getId(), rule);
+            }
+        }
+        while (!pending.isEmpty()) {
+            List<IRule> ready = new ArrayList<>();
+            Map<String, IRule> waiting = new LinkedHashMap<>();
+            for (IRule rule : pending.values()) {
+                DependsOn dependency = rule.getClass().getAnnotation(DependsOn.class);
+                String dependencyId =
+                        dependency != null ? dependency.value().getSimpleName() : null;
+                IResult dependencyResult = results.get(dependencyId);
+                if (dependency == null) {
+                    ready.add(rule);
+                } else if (pending.containsKey(dependencyId)) {
+                    waiting.put(rule.getId(), rule);
+                } else if (dependencyResult == null) {
+                    results.put(
+                            rule.getId(),
+                            notApplicable(
+                                    rule,
+                                    String.format(
+                                            "The %s rule this rule depends on was not evaluated",
+                                            dependencyId)));
+                } else if (dependencyResult.getSeverity().compareTo(dependency.severity()) >= 0) {
+                    ready.add(rule);
+                } else {
+                    results.put(
+                            rule.getId(),
+                            notApplicable(
+                                    rule,
+                                    String.format(
+                                            "The %s rule this rule depends on did not report a"
+                                                    + " result of %s severity",
+                                            dependencyId,
+                                            dependency.severity().getLocalizedName())));
+                }
+            }
+            if (ready.isEmpty()) {
+                // only rules depending on each other are left
+                waiting.values()
+                        .forEach(
+                                r ->
+                                        results.put(
+                                                r.getId(),
+                                                notApplicable(r, "Circular rule dependency")));
+                break;
+            }
+            for (IResult result : run(ready, items, resultProvider, threads, token)) {
+                results.put(result.getRule().getId(), result);
+                resultProvider.addResults(result);
+            }
+            pending = waiting;
+        }
+        Map<String, AnalysisResult> analysis = new HashMap<>();
+        for (IRule rule : rules) {
+            IResult result = results.get(rule.getId());
+            analysis.put(
+                    rule.getId(),
+                    result != null ? toAnalysisResult(rule, result) : notEvaluated(rule));
+        }
+        return analysis;
+    }
+
+    private List<IResult> run(
+            List<IRule> rules,
+            IItemCollection items,
+            ResultProvider resultProvider,
+            int threads,
+            CancellationToken token)
+            throws InterruptedException {
+        String requestId = token.requestId();
+        List<Evaluation> evaluations = new ArrayList<>(rules.size());
+        for (IRule rule : rules) {
+            evaluations.add(
+                    new Evaluation(
+                            rule,
+                            rule.createEvaluation(
+                                    items,
+                                    IPreferenceValueProvider.DEFAULT_VALUES,
+                                    resultProvider)));
+        }
+        Queue<Evaluation> queue = new ConcurrentLinkedQueue<>(evaluations);
+        // queued rules are cancelled rather than run once the request is cancelled, rules already
+        // running are interrupted by the cancellation of the request's future
+        Runnable worker =
+                () -> {
+                    Evaluation e;
+                    while ((e = queue.poll()) != null) {
+                        if (token.isCancelled()) {
+                            e.future.cancel(true);
+                        } else {
+                            e.run(requestId);
+                        }
+                    }
+                };
+        List<Future<?>> workers = new ArrayList<>();
+        try {
+            // the calling thread is one of the workers, so the evaluation progresses even while
+            // every thread of the shared pool is busy
+            for (int i = 1; i < Math.min(threads, rules.size()); i++) {
+                workers.add(parallelism.pool().submit(worker));
+            }
+            worker.run();
+            if (Thread.interrupted()) {
+                // the rules run on this thread record the interrupt as their own failure
+                throw new InterruptedException();
+            }
+            List<IResult> results = new ArrayList<>(evaluations.size());
+            for (Evaluation e : evaluations) {
+                try {
+                    results.add(e.future.get());
+                } catch (ExecutionException ex) {
+                    // as RulesToolkit.evaluateParallel does, a failing rule does not fail the
+                    // whole analysis
+                    logger.warnv(ex.getCause(), "Rule {0} failed", e.rule.getId());
+                    results.add(
+                            notApplicable(
+                                    e.rule,
+                                    "The rule could not be evaluated due to an exception: "
+                                            + ex.getCause()));
+                }
+            }
+            return results;
+        } finally {
+            evaluations.forEach(e -> e.future.cancel(true));
+            workers.forEach(w -> w.cancel(true));
+        }
+    }
+
+    private static IResult notApplicable(IRule rule, String reason) {
+        return RulesToolkit.getNotApplicableResult(
+                rule, IPreferenceValueProvider.DEFAULT_VALUES, reason);
+    }
+
+    private AnalysisResult notEvaluated(IRule rule) {
+        return convert(rule, Severity.NA.getLimit(), null);
+    }
+
+    private AnalysisResult toAnalysisResult(IRule rule, IResult result) {
+        IQuantity score = result.getResult(TypedResult.SCORE);
+        Map<String, Object> evaluation = new LinkedHashMap<>();
+        evaluation.put(
+                "summary", ResultToolkit.populateMessage(result, result.getSummary(), false));
+        evaluation.put(
+                "explanation",
+                ResultToolkit.populateMessage(result, result.getExplanation(), false));
+        evaluation.put(
+                "solution", ResultToolkit.populateMessage(result, result.getSolution(), false));
+        List<Map<String, String>> suggestions = new ArrayList<>();
+        Collection<IRecordingSetting> settings = result.suggestRecordingSettings();
+        if (settings != null) {
+            for (IRecordingSetting setting : settings) {
+                Map<String, String> suggestion = new LinkedHashMap<>();
+                suggestion.put("name", setting.getSettingFor());
+                suggestion.put("setting", setting.getSettingName());
+                suggestion.put("value", setting.getSettingValue());
+                suggestions.add(suggestion);
+            }
+        }
+        evaluation.put("suggestions", suggestions);
+        return convert(
+                rule,
+                score != null ? score.doubleValue() : result.getSeverity().getLimit(),
+                evaluation);
+    }
+
+    private record Evaluation(IRule rule, RunnableFuture<IResult> future) {
+        void run(String requestId) {
+            ReportEvents.RuleEvaluation event = new ReportEvents.RuleEvaluation();
+            event.requestId = requestId;
+            event.ruleId = rule.getId();
+            event.begin();
+            future.run();
+            event.end();
+            if (event.shouldCommit() && future.isDone() && !future.isCancelled()) {
+                try {
+                    IQuantity score = future.get().getResult(TypedResult.SCORE);
+                    event.score =
+                            score != null
+                                    ? score.doubleValue()
+                                    : future.get().getSeverity().getLimit();
+                } catch (InterruptedException | ExecutionException e) {
+                    event.score = Severity.NA.getLimit();
+                }
+            }
+            event.commit();
+        }
+    }
+
+    private AnalysisResult convert(IRule rule, double score, Map<String, Object> evaluation) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("name", rule.getName());
+        json.put("topic", rule.getTopic());
+        json.put("score", score);
+        json.put("evaluation", evaluation);
+        return mapper.convertValue(json, AnalysisResult.class);
+    }
+}
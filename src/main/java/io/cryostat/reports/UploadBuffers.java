@@ -0,0 +1,130 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.openjdk.jmc.common.io.IOToolkit;
+
+// Pool of reusable heap buffers for analyzing small compressed uploads entirely in memory. Each
+// upload is decompressed into a buffer in a single pass, skipping the decompressed temporary file
+// copy, the extra reads and the deletions of the disk path. Uncompressed uploads are left to the
+// disk path, since they are already spooled to a file and a buffer would only add a heap copy.
+// Heap arrays are used rather than direct buffers since the JFR parser consumes an InputStream.
+@ApplicationScoped
+public class UploadBuffers {
+
+    static final int MIN_BYTES = 64 * 1024;
+
+    @ConfigProperty(
+            name = "io.cryostat.reports.upload.in-memory-max-bytes",
+            defaultValue = "4194304")
+    int maxBytes;
+
+    @ConfigProperty(name = "io.cryostat.reports.upload.buffer-pool-size", defaultValue = "4")
+    int poolSize;
+
+    BlockingQueue<byte[]> pool;
+
+    @PostConstruct
+    void init() {
+        pool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    boolean accepts(java.nio.file.Path file, long size) throws IOException {
+        return maxBytes > 0
+                && size >= 0
+                && size <= maxBytes
+                && IOToolkit.isCompressedFile(file.toFile());
+    }
+
+    // Returns null if the uncompressed recording does not fit in memory, in which case the caller
+    // should fall back to the disk path
+    Buffer read(java.nio.file.Path file) throws IOException {
+        byte[] bytes = pool.poll();
+        if (bytes == null) {
+            // sized to the upload, and grown as needed while a compressed upload is decompressed
+            bytes = new byte[(int) Math.min(maxBytes, Math.max(MIN_BYTES, Files.size(file)))];
+        }
+        Buffer buffer = null;
+        try (InputStream in = IOToolkit.openUncompressedStream(file.toFile())) {
+            int length = 0;
+            while (true) {
+                length += in.readNBytes(bytes, length, bytes.length - length);
+                if (length < bytes.length) {
+                    break;
+                }
+                int next = in.read();
+                if (next == -1) {
+                    break;
+                }
+                if (bytes.length >= maxBytes) {
+                    return null;
+                }
+                bytes = Arrays.copyOf(bytes, (int) Math.min(maxBytes, 2L * bytes.length));
+                bytes[length++] = (byte) next;
+            }
+            buffer = new Buffer(bytes, length);
+            return buffer;
+        } finally {
+            // returned to the pool unless it was handed out, also if the upload could not be read
+            if (buffer == null) {
+                pool.offer(bytes);
+            }
+        }
+    }
+
+    class Buffer implements AutoCloseable {
+        private final byte[] bytes;
+        private final int length;
+        private boolean reusable;
+
+        private Buffer(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        int length() {
+            return length;
+        }
+
+        InputStream newInputStream() {
+            return new ByteArrayInputStream(bytes, 0, length);
+        }
+
+        // Only buffers whose consumer is known to have finished reading are returned to the pool,
+        // since a cancelled parse may still be reading from the buffer in the background
+        void markReusable() {
+            this.reusable = true;
+        }
+
+        @Override
+        public void close() {
+            if (reusable) {
+                pool.offer(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator;
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+// Runs the parse/evaluate/serialize pipeline against a bundled recording after startup, so that the
+// JMC parser and rule code are JIT compiled before the first real report request arrives. The
+// service does not report itself as ready until this has completed.
+@ApplicationScoped
+public class Warmup {
+
+    static final String WARMUP_RECORDING = "/warmup.jfr.gz";
+
+    @ConfigProperty(name = "io.cryostat.reports.warmup.iterations", defaultValue = "0")
+    int iterations;
+
+    @Inject AnalysisParallelism parallelism;
+    @Inject RuleEvaluator evaluator;
+    @Inject ObjectMapper mapper;
+    @Inject Logger logger;
+
+    private volatile boolean complete;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (iterations <= 0) {
+            complete = true;
+            return;
+        }
+        Thread thread = new Thread(this::run, "cryostat-reports-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        int threads = AnalysisParallelism.maxParallelism();
+        ExecutorService executor = parallelism.executorFor(threads);
+        try {
+            InterruptibleReportGenerator generator = new InterruptibleReportGenerator(executor);
+            for (int i = 0; i < iterations; i++) {
+                long iterationStart = System.nanoTime();
+                try (InputStream stream = openRecording()) {
+                    Map<String, AnalysisResult> result =
+                            generator.generateEvalMapInterruptibly(stream, r -> true).get();
+                    mapper.writeValueAsString(result);
+                }
+                try (InputStream stream = openRecording()) {
+                    mapper.writeValueAsString(
+                            evaluator
+                                    .submit(
+                                            "warmup",
+                                            () -> JfrLoaderToolkit.loadEvents(stream),
+                                            r -> true,
+                                            threads,
+                                            new CancellationToken("warmup", logger))
+                                    .get());
+                }
+                logger.infof(
+                        "Warm-up iteration %d/%d took %dms",
+                        i + 1,
+                        iterations,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - iterationStart));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Warm-up interrupted");
+        } catch (Exception e) {
+            logger.error("Warm-up failed", e);
+        } finally {
+            executor.shutdownNow();
+            complete = true;
+            logger.infof(
+                    "Warm-up completed after %dms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private InputStream openRecording() {
+        return new BufferedInputStream(getClass().getResourceAsStream(WARMUP_RECORDING));
+    }
+}
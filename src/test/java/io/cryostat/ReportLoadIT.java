@@ -0,0 +1,376 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat;
+
+import static io.restassured.RestAssured.given;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.net.httpserver.HttpServer;
+import io.quarkus.test.junit.QuarkusIntegrationTest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+// Drives concurrent report traffic against the packaged service, launched as a separate process,
+// and asserts throughput, latency, rejection, failure and memory SLOs. Excluded from the default
+// test run, see the "Load testing" section of the README for how to run and configure it.
+@QuarkusIntegrationTest
+@Tag("load")
+public class ReportLoadIT {
+
+    static final List<String> TYPES =
+            List.of("report", "report-gz", "report-filtered", "remote", "heapdump");
+
+    static HttpServer objectStore;
+    static Path workDir;
+    static Map<String, List<Path>> files = new LinkedHashMap<>();
+
+    @BeforeAll
+    static void setup() throws Exception {
+        workDir = Files.createTempDirectory("cryostat-reports-loadtest");
+        Path sample = Paths.get(ReportLoadIT.class.getResource("/profiling_sample.jfr").toURI());
+        byte[] sampleBytes = Files.readAllBytes(sample);
+        List<Path> plain = new ArrayList<>();
+        List<Path> compressed = new ArrayList<>();
+        for (String size : System.getProperty("loadtest.sizes", "1,4").split(",")) {
+            int multiplier = Integer.parseInt(size.trim());
+            Path jfr = workDir.resolve(String.format("sample-x%d.jfr", multiplier));
+            Path gz = workDir.resolve(String.format("sample-x%d.jfr.gz", multiplier));
+            try (OutputStream out = Files.newOutputStream(jfr);
+                    OutputStream gzOut = new GZIPOutputStream(Files.newOutputStream(gz))) {
+                for (int i = 0; i < multiplier; i++) {
+                    out.write(sampleBytes);
+                    gzOut.write(sampleBytes);
+                }
+            }
+            plain.add(jfr);
+            compressed.add(gz);
+        }
+        files.put("report", plain);
+        files.put("report-filtered", plain);
+        files.put("report-gz", compressed);
+        files.put("remote", compressed);
+
+        if (weights().getOrDefault("heapdump", 0) > 0) {
+            Path hprof = workDir.resolve("loadtest.hprof");
+            ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                    .dumpHeap(hprof.toString(), true);
+            files.put("heapdump", List.of(hprof));
+        }
+
+        objectStore = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        objectStore.setExecutor(Executors.newCachedThreadPool());
+        objectStore.createContext(
+                "/bucket/",
+                exchange -> {
+                    Path file =
+                            workDir.resolve(
+                                    exchange.getRequestURI()
+                                            .getPath()
+                                            .substring("/bucket/".length()));
+                    if (!Files.isRegularFile(file)) {
+                        exchange.sendResponseHeaders(404, -1);
+                        exchange.close();
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, Files.size(file));
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        Files.copy(file, out);
+                    }
+                });
+        objectStore.start();
+    }
+
+    @AfterAll
+    static void teardown() throws IOException {
+        if (objectStore != null) {
+            objectStore.stop(0);
+        }
+        if (workDir != null) {
+            try (var paths = Files.walk(workDir)) {
+                for (Path p : paths.sorted(Collections.reverseOrder()).toList()) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 1);
+        long duration = TimeUnit.SECONDS.toNanos(Integer.getInteger("loadtest.duration", 60));
+        List<String> schedule = new ArrayList<>();
+        weights()
+                .forEach(
+                        (type, weight) -> {
+                            if (files.containsKey(type)) {
+                                for (int i = 0; i < weight; i++) {
+                                    schedule.add(type);
+                                }
+                            }
+                        });
+        MatcherAssert.assertThat(schedule, Matchers.not(Matchers.empty()));
+
+        Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+        Map<String, LongAdder> rejections = new ConcurrentHashMap<>();
+        Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+        resetPeakRss();
+
+        long start = System.nanoTime();
+        long deadline = start + duration;
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        for (int c = 0; c < concurrency; c++) {
+            clients.submit(
+                    () -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        while (System.nanoTime() < deadline) {
+                            String type = schedule.get(random.nextInt(schedule.size()));
+                            List<Path> candidates = files.get(type);
+                            Path file = candidates.get(random.nextInt(candidates.size()));
+                            long requestStart = System.nanoTime();
+                            int status = send(type, file);
+                            long elapsed = System.nanoTime() - requestStart;
+                            if (status == 200) {
+                                latencies
+                                        .computeIfAbsent(
+                                                type,
+                                                k ->
+                                                        Collections.synchronizedList(
+                                                                new ArrayList<>()))
+                                        .add(elapsed);
+                            } else if (status == 429 || status == 503 || status == 413) {
+                                rejections.computeIfAbsent(type, k -> new LongAdder()).increment();
+                            } else {
+                                failures.computeIfAbsent(type, k -> new LongAdder()).increment();
+                            }
+                        }
+                        return null;
+                    });
+        }
+        clients.shutdown();
+        clients.awaitTermination(duration + TimeUnit.MINUTES.toNanos(5), TimeUnit.NANOSECONDS);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        List<Long> all = new ArrayList<>();
+        latencies.values().forEach(all::addAll);
+        long succeeded = all.size();
+        long rejected = rejections.values().stream().mapToLong(LongAdder::sum).sum();
+        long failed = failures.values().stream().mapToLong(LongAdder::sum).sum();
+        long total = succeeded + rejected + failed;
+        double throughput = succeeded / elapsedSeconds;
+        double rejectionRate = total == 0 ? 0 : (double) rejected / total;
+        double failureRate = total == 0 ? 0 : (double) failed / total;
+        long p50 = percentileMs(all, 50);
+        long p99 = percentileMs(all, 99);
+        long peakRssMb = peakRssKb() / 1024;
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("concurrency", concurrency);
+        results.put("durationSeconds", elapsedSeconds);
+        results.put("requests", total);
+        results.put("succeeded", succeeded);
+        results.put("rejected", rejected);
+        results.put("failed", failed);
+        results.put("throughput", throughput);
+        results.put("rejectionRate", rejectionRate);
+        results.put("failureRate", failureRate);
+        results.put("p50Ms", p50);
+        results.put("p99Ms", p99);
+        results.put("peakRssMb", peakRssMb);
+        Map<String, Object> byType = new LinkedHashMap<>();
+        for (String type : TYPES) {
+            List<Long> l = latencies.getOrDefault(type, List.of());
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("succeeded", l.size());
+            r.put("rejected", rejections.getOrDefault(type, new LongAdder()).sum());
+            r.put("failed", failures.getOrDefault(type, new LongAdder()).sum());
+            r.put("p50Ms", percentileMs(l, 50));
+            r.put("p99Ms", percentileMs(l, 99));
+            byType.put(type, r);
+        }
+        results.put("byType", byType);
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        Path out = Paths.get("target", "loadtest-results.json");
+        Files.createDirectories(out.getParent());
+        Files.writeString(out, mapper.writeValueAsString(results));
+
+        MatcherAssert.assertThat(total, Matchers.greaterThan(0L));
+        MatcherAssert.assertThat(
+                failureRate,
+                Matchers.lessThanOrEqualTo(
+                        Double.parseDouble(
+                                System.getProperty("loadtest.slo.max-failure-rate", "0"))));
+        MatcherAssert.assertThat(
+                throughput,
+                Matchers.greaterThanOrEqualTo(
+                        Double.parseDouble(
+                                System.getProperty("loadtest.slo.min-throughput", "0"))));
+        MatcherAssert.assertThat(
+                p50, Matchers.lessThanOrEqualTo(Long.getLong("loadtest.slo.p50-ms", 30_000)));
+        MatcherAssert.assertThat(
+                p99, Matchers.lessThanOrEqualTo(Long.getLong("loadtest.slo.p99-ms", 30_000)));
+        MatcherAssert.assertThat(
+                rejectionRate,
+                Matchers.lessThanOrEqualTo(
+                        Double.parseDouble(
+                                System.getProperty("loadtest.slo.max-rejection-rate", "1"))));
+        long maxRssMb = Long.getLong("loadtest.slo.max-rss-mb", 0);
+        if (maxRssMb > 0) {
+            MatcherAssert.assertThat(peakRssMb, Matchers.lessThanOrEqualTo(maxRssMb));
+        }
+    }
+
+    private static int send(String type, Path file) {
+        try {
+            switch (type) {
+                case "report":
+                case "report-gz":
+                    return given().multiPart("file", file.toFile())
+                            .when()
+                            .post("/report")
+                            .then()
+                            .extract()
+                            .statusCode();
+                case "report-filtered":
+                    return given().multiPart("file", file.toFile())
+                            .formParam("filter", "heap")
+                            .when()
+                            .post("/report")
+                            .then()
+                            .extract()
+                            .statusCode();
+                case "remote":
+                    return given().multiPart(
+                                    "uri",
+                                    String.format(
+                                            "http://localhost:%d/bucket/%s",
+                                            objectStore.getAddress().getPort(), file.getFileName()))
+                            .when()
+                            .post("/remote_report")
+                            .then()
+                            .extract()
+                            .statusCode();
+                case "heapdump":
+                    return given().multiPart("file", file.toFile())
+                            .when()
+                            .post("/heapdump/report")
+                            .then()
+                            .extract()
+                            .statusCode();
+                default:
+                    throw new IllegalArgumentException(type);
+            }
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static Map<String, Integer> weights() {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        String mix =
+                System.getProperty(
+                        "loadtest.mix",
+                        "report=4,report-gz=2,report-filtered=1,remote=2,heapdump=0");
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            String type = parts[0].trim();
+            if (!TYPES.contains(type)) {
+                throw new IllegalArgumentException("Unknown request type: " + type);
+            }
+            weights.put(type, Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    private static long percentileMs(List<Long> latencies, int percentile) {
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        int idx = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(0, idx)));
+    }
+
+    // The service is launched as a child process of the test JVM, either the packaged jar or the
+    // native executable. Writing 5 to clear_refs resets its high water mark so that startup and
+    // setup work are not counted.
+    private static void resetPeakRss() {
+        ProcessHandle.current()
+                .descendants()
+                .forEach(
+                        p -> {
+                            try {
+                                Files.writeString(
+                                        Paths.get("/proc", String.valueOf(p.pid()), "clear_refs"),
+                                        "5");
+                            } catch (Exception e) {
+                                // not supported on this platform; the peak will include startup
+                            }
+                        });
+    }
+
+    // Zero if the service is not a descendant of this process, for example when it runs in a
+    // container, or if the platform does not provide the high water mark
+    private static long peakRssKb() {
+        return ProcessHandle.current()
+                .descendants()
+                .mapToLong(
+                        p -> {
+                            try {
+                                for (String line :
+                                        Files.readAllLines(
+                                                Paths.get(
+                                                        "/proc",
+                                                        String.valueOf(p.pid()),
+                                                        "status"))) {
+                                    if (line.startsWith("VmHWM:")) {
+                                        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                                    }
+                                }
+                            } catch (Exception e) {
+                                // not supported on this platform, or the process has exited
+                            }
+                            return 0;
+                        })
+                .sum();
+    }
+}
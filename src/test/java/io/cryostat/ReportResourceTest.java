@@ -17,19 +17,30 @@ package io.cryostat;
 
 import static io.restassured.RestAssured.given;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator;
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
 import org.hamcrest.MatcherAssert;
@@ -50,6 +61,23 @@ public class ReportResourceTest {
         given().when().get("/health").then().statusCode(204);
     }
 
+    @Test
+    public void testReadinessEndpoint() {
+        given().when().get("/ready").then().statusCode(204);
+    }
+
+    @Test
+    public void testQueueEndpoint() {
+        given().when()
+                .get("/queue")
+                .then()
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .body("active", Matchers.equalTo(0))
+                .body("queued", Matchers.equalTo(0))
+                .body("concurrency", Matchers.equalTo(1));
+    }
+
     @ParameterizedTest
     @ValueSource(
             strings = {
@@ -201,6 +229,150 @@ public class ReportResourceTest {
                 Matchers.everyItem(Matchers.equalTo(-1d)));
     }
 
+    @Test
+    public void testReportEndpointCbor() throws URISyntaxException, IOException {
+        File jfr = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        byte[] response =
+                given().contentType("multipart/form-data")
+                        .accept("application/cbor")
+                        .multiPart("file", jfr)
+                        .when()
+                        .post("/report")
+                        .then()
+                        .statusCode(200)
+                        .contentType("application/cbor")
+                        .extract()
+                        .asByteArray();
+
+        Map<String, RuleEvaluation> map =
+                new CBORMapper()
+                        .readValue(response, new TypeReference<Map<String, RuleEvaluation>>() {});
+        MatcherAssert.assertThat(
+                map, Matchers.aMapWithSize(RuleRegistry.getRules().size() + NUM_CUSTOM_RULES));
+        for (var e : map.entrySet()) {
+            MatcherAssert.assertThat(
+                    e.getValue().getName(), Matchers.not(Matchers.emptyOrNullString()));
+        }
+    }
+
+    @Test
+    public void testReportEndpointPrefersAcceptedSmile() throws URISyntaxException, IOException {
+        File jfr = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        byte[] response =
+                given().contentType("multipart/form-data")
+                        .accept("application/json;q=0.5, application/x-jackson-smile")
+                        .multiPart("file", jfr)
+                        .when()
+                        .post("/report")
+                        .then()
+                        .statusCode(200)
+                        .contentType("application/x-jackson-smile")
+                        .header("Vary", Matchers.containsString("Accept"))
+                        .extract()
+                        .asByteArray();
+
+        Map<String, RuleEvaluation> map =
+                new SmileMapper()
+                        .readValue(response, new TypeReference<Map<String, RuleEvaluation>>() {});
+        MatcherAssert.assertThat(
+                map, Matchers.aMapWithSize(RuleRegistry.getRules().size() + NUM_CUSTOM_RULES));
+    }
+
+    @Test
+    public void testIncrementalReportEndpoint() throws Exception {
+        File jfr = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        ObjectMapper oMapper = new ObjectMapper();
+        // the expected results come from the report generator of cryostat-core, independent of the
+        // RuleEvaluator used by the incremental path
+        Map<String, AnalysisResult> expected;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(jfr.toPath()))) {
+            expected =
+                    new InterruptibleReportGenerator(executor)
+                            .generateEvalMapInterruptibly(stream, r -> true)
+                            .get();
+        } finally {
+            executor.shutdownNow();
+        }
+        // the first request parses every chunk, the second reuses them all
+        for (int i = 0; i < 2; i++) {
+            String response =
+                    given().contentType("multipart/form-data")
+                            .accept(ContentType.JSON)
+                            .multiPart("file", jfr)
+                            .formParam("jvmId", "incremental-test")
+                            .when()
+                            .post("/report")
+                            .then()
+                            .statusCode(200)
+                            .contentType("application/json")
+                            .extract()
+                            .asString();
+
+            Map<String, RuleEvaluation> map =
+                    oMapper.readValue(
+                            response, new TypeReference<Map<String, RuleEvaluation>>() {});
+            MatcherAssert.assertThat(
+                    map, Matchers.aMapWithSize(RuleRegistry.getRules().size() + NUM_CUSTOM_RULES));
+            MatcherAssert.assertThat(map.keySet(), Matchers.equalTo(expected.keySet()));
+            for (var e : map.entrySet()) {
+                MatcherAssert.assertThat(
+                        e.getValue().getName(), Matchers.not(Matchers.emptyOrNullString()));
+                MatcherAssert.assertThat(
+                        e.getKey(),
+                        e.getValue().getScore(),
+                        Matchers.closeTo(expected.get(e.getKey()).getScore(), 1e-9));
+            }
+        }
+    }
+
+    @Test
+    public void testCompareEndpoint()
+            throws URISyntaxException, JsonMappingException, JsonProcessingException {
+        File baseline = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        File candidate =
+                Paths.get(getClass().getResource("/profiling_sample.jfr.gz").toURI()).toFile();
+        String response =
+                given().contentType("multipart/form-data")
+                        .accept(ContentType.JSON)
+                        .multiPart("baseline", baseline)
+                        .multiPart("candidate", candidate)
+                        .when()
+                        .post("/compare")
+                        .then()
+                        .statusCode(200)
+                        .contentType("application/json")
+                        .extract()
+                        .asString();
+
+        ObjectMapper oMapper = new ObjectMapper();
+        Map<String, Map<String, Object>> map =
+                oMapper.readValue(
+                        response, new TypeReference<Map<String, Map<String, Object>>>() {});
+        MatcherAssert.assertThat(
+                map, Matchers.aMapWithSize(RuleRegistry.getRules().size() + NUM_CUSTOM_RULES));
+        for (var e : map.entrySet()) {
+            MatcherAssert.assertThat(e.getValue(), Matchers.hasKey("baseline"));
+            MatcherAssert.assertThat(e.getValue(), Matchers.hasKey("candidate"));
+            if (e.getValue().containsKey("delta")) {
+                MatcherAssert.assertThat(
+                        ((Number) e.getValue().get("delta")).doubleValue(),
+                        Matchers.closeTo(0d, 0.01d));
+            }
+        }
+    }
+
+    @Test
+    public void testCompareEndpointRequiresBothRecordings() throws URISyntaxException {
+        File baseline = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        given().contentType("multipart/form-data")
+                .multiPart("baseline", baseline)
+                .when()
+                .post("/compare")
+                .then()
+                .statusCode(400);
+    }
+
     public static class RuleEvaluation {
         private double score;
         private String name;
@@ -0,0 +1,74 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat;
+
+import static io.restassured.RestAssured.given;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import io.cryostat.ReportResourceTest.RuleEvaluation;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
+
+// The compressed sample fits in the in-memory buffer limit, but the uncompressed recording does
+// not, so the upload is analyzed on the disk path after all
+@QuarkusTest
+@TestProfile(ReportResourceUploadBufferTest.SmallBuffer.class)
+public class ReportResourceUploadBufferTest {
+
+    private static final int NUM_CUSTOM_RULES = 1;
+
+    public static class SmallBuffer implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("io.cryostat.reports.upload.in-memory-max-bytes", "1048576");
+        }
+    }
+
+    @Test
+    public void testCompressedUploadExpandingPastBufferFallsBackToDisk() throws Exception {
+        File gz = Paths.get(getClass().getResource("/profiling_sample.jfr.gz").toURI()).toFile();
+        MatcherAssert.assertThat(gz.length(), Matchers.lessThan(1048576L));
+        String response =
+                given().contentType("multipart/form-data")
+                        .accept(ContentType.JSON)
+                        .multiPart("file", gz)
+                        .when()
+                        .post("/report")
+                        .then()
+                        .statusCode(200)
+                        .contentType("application/json")
+                        .extract()
+                        .asString();
+
+        Map<String, RuleEvaluation> map =
+                new ObjectMapper()
+                        .readValue(response, new TypeReference<Map<String, RuleEvaluation>>() {});
+        MatcherAssert.assertThat(
+                map, Matchers.aMapWithSize(RuleRegistry.getRules().size() + NUM_CUSTOM_RULES));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AnalysisParallelismTest {
+
+    static final long THRESHOLD = 16 * 1024 * 1024;
+
+    AnalysisParallelism parallelism;
+    int max;
+
+    @BeforeEach
+    void setup() {
+        parallelism = new AnalysisParallelism();
+        parallelism.singleThreadMaxBytes = THRESHOLD;
+        max = AnalysisParallelism.maxParallelism();
+    }
+
+    @AfterEach
+    void teardown() {
+        parallelism.shutdown();
+    }
+
+    @Test
+    void testSmallRecordingUsesSingleThread() {
+        MatcherAssert.assertThat(parallelism.parallelismFor(0, 1), Matchers.equalTo(1));
+        MatcherAssert.assertThat(parallelism.parallelismFor(THRESHOLD - 1, 1), Matchers.equalTo(1));
+    }
+
+    @Test
+    void testLargeRecordingUsesAllProcessors() {
+        MatcherAssert.assertThat(parallelism.parallelismFor(THRESHOLD, 1), Matchers.equalTo(max));
+    }
+
+    @Test
+    void testUnknownSizeIsTreatedAsLarge() {
+        MatcherAssert.assertThat(parallelism.parallelismFor(-1, 1), Matchers.equalTo(max));
+    }
+
+    @Test
+    void testProcessorsAreSplitBetweenConcurrentAnalyses() {
+        MatcherAssert.assertThat(
+                parallelism.parallelismFor(THRESHOLD, 2), Matchers.equalTo(Math.max(1, max / 2)));
+        MatcherAssert.assertThat(
+                parallelism.parallelismFor(THRESHOLD, max + 1), Matchers.equalTo(1));
+        MatcherAssert.assertThat(parallelism.parallelismFor(-1, 0), Matchers.equalTo(max));
+    }
+
+    @Test
+    void testAcquireCountsActiveAnalyses() {
+        MatcherAssert.assertThat(parallelism.acquire(THRESHOLD), Matchers.equalTo(max));
+        MatcherAssert.assertThat(
+                parallelism.acquire(THRESHOLD), Matchers.equalTo(Math.max(1, max / 2)));
+        MatcherAssert.assertThat(parallelism.active(), Matchers.equalTo(2));
+        parallelism.release();
+        parallelism.release();
+        MatcherAssert.assertThat(parallelism.active(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void testSingleThreadPropertyLimitsParallelism() {
+        String previous = System.getProperty(ReportResource.SINGLETHREAD_PROPERTY);
+        System.setProperty(ReportResource.SINGLETHREAD_PROPERTY, "true");
+        try {
+            MatcherAssert.assertThat(parallelism.parallelismFor(-1, 1), Matchers.equalTo(1));
+        } finally {
+            if (previous == null) {
+                System.clearProperty(ReportResource.SINGLETHREAD_PROPERTY);
+            } else {
+                System.setProperty(ReportResource.SINGLETHREAD_PROPERTY, previous);
+            }
+        }
+    }
+
+    @Test
+    void testExecutorRunsAtMostItsParallelismOnSharedPool() throws Exception {
+        ExecutorService executor = parallelism.executorFor(2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(
+                    executor.submit(
+                            () -> {
+                                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                                Thread.sleep(20);
+                                running.decrementAndGet();
+                                return Thread.currentThread().getName();
+                            }));
+        }
+        for (Future<String> future : futures) {
+            MatcherAssert.assertThat(
+                    future.get(5, TimeUnit.SECONDS),
+                    Matchers.startsWith("cryostat-reports-analysis-"));
+        }
+        MatcherAssert.assertThat(peak.get(), Matchers.lessThanOrEqualTo(2));
+
+        executor.shutdown();
+        MatcherAssert.assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), Matchers.is(true));
+    }
+
+    @Test
+    void testShutdownNowOnlyCancelsOwnTasks() throws Exception {
+        ExecutorService first = parallelism.executorFor(1);
+        ExecutorService second = parallelism.executorFor(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<?> blocked =
+                first.submit(
+                        () -> {
+                            started.countDown();
+                            Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                            return null;
+                        });
+        Future<?> queued = first.submit(() -> null);
+        MatcherAssert.assertThat(started.await(5, TimeUnit.SECONDS), Matchers.is(true));
+
+        MatcherAssert.assertThat(first.shutdownNow(), Matchers.hasSize(1));
+        MatcherAssert.assertThat(first.awaitTermination(5, TimeUnit.SECONDS), Matchers.is(true));
+        MatcherAssert.assertThat(queued.isDone(), Matchers.is(false));
+        MatcherAssert.assertThat(
+                second.submit(() -> "ok").get(5, TimeUnit.SECONDS), Matchers.equalTo("ok"));
+        Assertions.assertThrows(ExecutionException.class, () -> blocked.get(5, TimeUnit.SECONDS));
+    }
+}
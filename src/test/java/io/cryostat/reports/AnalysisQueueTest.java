@@ -0,0 +1,175 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.core.HttpHeaders;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AnalysisQueueTest {
+
+    static final long COST = 10 * AnalysisQueue.MIN_COST;
+
+    AnalysisQueue queue;
+    ExecutorService executor;
+    List<String> admitted;
+
+    @BeforeEach
+    void setup() {
+        queue = new AnalysisQueue();
+        queue.concurrency = 1;
+        queue.depth = 8;
+        queue.maxWaitMs = 10_000;
+        queue.tenantWeights = Optional.empty();
+        queue.requestId = new RequestId();
+        queue.logger = Logger.getLogger(AnalysisQueue.class);
+        executor = Executors.newCachedThreadPool();
+        admitted = new CopyOnWriteArrayList<>();
+    }
+
+    @AfterEach
+    void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testHeavierTenantIsAdmittedFirst() throws Exception {
+        queue.tenantWeights = Optional.of(List.of("b=4"));
+        queue.init();
+        List<Future<?>> requests;
+        try (AnalysisQueue.Ticket ticket = queue.enter("holder", COST)) {
+            requests =
+                    List.of(
+                            enqueue("a", COST),
+                            enqueue("a", COST),
+                            enqueue("b", COST),
+                            enqueue("b", COST));
+            awaitQueued(4);
+        }
+        awaitAll(requests);
+        MatcherAssert.assertThat(admitted, Matchers.contains("b", "b", "a", "a"));
+    }
+
+    @Test
+    void testMalformedWeightsAreIgnored() throws Exception {
+        queue.tenantWeights = Optional.of(List.of("a=heavy", "b=-1", "=2", "c"));
+        queue.init();
+        try (AnalysisQueue.Ticket ticket = queue.enter("a", COST)) {
+            MatcherAssert.assertThat(queue.stats().active(), Matchers.equalTo(1));
+        }
+    }
+
+    @Test
+    void testTenantOverQuotaIsRejectedWithRetryAfter() throws Exception {
+        queue.concurrency = 2;
+        queue.maxWaitMs = 3000;
+        queue.tenantMaxBytes = COST + COST / 2;
+        queue.init();
+        try (AnalysisQueue.Ticket ticket = queue.enter("a", COST)) {
+            ClientErrorException e =
+                    Assertions.assertThrows(
+                            ClientErrorException.class, () -> queue.enter("a", COST));
+            MatcherAssert.assertThat(e.getResponse().getStatus(), Matchers.equalTo(429));
+            MatcherAssert.assertThat(
+                    e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER),
+                    Matchers.equalTo("3"));
+
+            // other tenants have their own quota
+            queue.enter("b", COST).close();
+        }
+        // a single request larger than the quota is accepted while the tenant is idle
+        queue.enter("a", 2 * COST).close();
+    }
+
+    @Test
+    void testTenantConcurrencyIsLimited() throws Exception {
+        queue.concurrency = 2;
+        queue.tenantConcurrency = 1;
+        queue.init();
+        Future<?> waiting;
+        try (AnalysisQueue.Ticket ticket = queue.enter("a", COST)) {
+            waiting = enqueue("a", COST);
+            awaitQueued(1);
+            // the second slot is still free for other tenants
+            queue.enter("b", COST).close();
+            MatcherAssert.assertThat(
+                    queue.stats().tenants().get("a").queued(), Matchers.equalTo(1));
+            MatcherAssert.assertThat(admitted, Matchers.empty());
+        }
+        waiting.get(5, TimeUnit.SECONDS);
+        MatcherAssert.assertThat(admitted, Matchers.contains("a"));
+    }
+
+    @Test
+    void testRejectedRequestDoesNotDelayTenant() throws Exception {
+        queue.depth = 0;
+        queue.init();
+        List<Future<?>> requests;
+        try (AnalysisQueue.Ticket ticket = queue.enter("a", COST)) {
+            Assertions.assertThrows(ClientErrorException.class, () -> queue.enter("a", COST));
+            MatcherAssert.assertThat(queue.stats().queued(), Matchers.equalTo(0));
+
+            // b's request finishes between a's next request with and without the rejected one
+            queue.depth = 8;
+            Future<?> b = enqueue("b", 5 * COST / 2);
+            awaitQueued(1);
+            requests = List.of(b, enqueue("a", COST));
+            awaitQueued(2);
+        }
+        awaitAll(requests);
+        MatcherAssert.assertThat(admitted, Matchers.contains("a", "b"));
+    }
+
+    private Future<?> enqueue(String tenant, long bytes) {
+        return executor.submit(
+                () -> {
+                    try (AnalysisQueue.Ticket ticket = queue.enter(tenant, bytes)) {
+                        admitted.add(tenant);
+                    }
+                    return null;
+                });
+    }
+
+    private void awaitQueued(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queue.stats().queued() < count) {
+            if (System.nanoTime() > deadline) {
+                Assertions.fail("Requests were not queued: " + queue.stats());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> requests) throws Exception {
+        for (Future<?> request : requests) {
+            request.get(5, TimeUnit.SECONDS);
+        }
+    }
+}
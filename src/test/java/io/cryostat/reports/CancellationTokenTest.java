@@ -0,0 +1,102 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CancellationTokenTest {
+
+    CancellationToken token;
+    List<String> released;
+
+    @BeforeEach
+    void setup() {
+        token = new CancellationToken("test", Logger.getLogger(CancellationTokenTest.class));
+        released = new ArrayList<>();
+    }
+
+    @Test
+    void testResourcesAreReleasedMostRecentFirst() {
+        token.onCancel(() -> released.add("connection"));
+        token.onCancel(() -> released.add("stream"));
+        token.onCancel(() -> released.add("file"));
+
+        token.cancel("client closed");
+
+        MatcherAssert.assertThat(token.isCancelled(), Matchers.is(true));
+        MatcherAssert.assertThat(released, Matchers.contains("file", "stream", "connection"));
+    }
+
+    @Test
+    void testResourcesAreReleasedOnce() {
+        token.onCancel(() -> released.add("stream"));
+
+        token.cancel("client closed");
+        token.cancel("timeout");
+
+        MatcherAssert.assertThat(released, Matchers.contains("stream"));
+    }
+
+    @Test
+    void testLateRegistrationIsReleasedImmediately() {
+        token.cancel("client closed");
+        MatcherAssert.assertThat(released, Matchers.empty());
+
+        token.onCancel(() -> released.add("stream"));
+        MatcherAssert.assertThat(released, Matchers.contains("stream"));
+
+        CompletableFuture<Void> future = token.register(new CompletableFuture<>());
+        MatcherAssert.assertThat(future.isCancelled(), Matchers.is(true));
+    }
+
+    @Test
+    void testCancelAfterCompleteHasNoEffect() throws Exception {
+        token.onCancel(() -> released.add("stream"));
+        CompletableFuture<Void> future = token.register(new CompletableFuture<>());
+
+        token.complete();
+        token.cancel("response ended");
+
+        MatcherAssert.assertThat(token.isCancelled(), Matchers.is(false));
+        MatcherAssert.assertThat(released, Matchers.empty());
+        MatcherAssert.assertThat(future.isCancelled(), Matchers.is(false));
+        token.throwIfCancelled();
+    }
+
+    @Test
+    void testGuardedStreamFailsAfterCancel() throws Exception {
+        try (InputStream in = token.guard(new ByteArrayInputStream(new byte[] {1, 2, 3}))) {
+            MatcherAssert.assertThat(in.read(), Matchers.equalTo(1));
+
+            token.cancel("client closed");
+
+            Assertions.assertThrows(InterruptedIOException.class, in::read);
+            Assertions.assertThrows(InterruptedIOException.class, token::throwIfCancelled);
+        }
+    }
+}
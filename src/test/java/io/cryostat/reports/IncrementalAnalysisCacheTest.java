@@ -0,0 +1,145 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.util.IPreferenceValueProvider;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.rules.IResult;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
+import org.openjdk.jmc.flightrecorder.rules.TypedResult;
+import org.openjdk.jmc.flightrecorder.rules.util.RulesToolkit;
+
+public class IncrementalAnalysisCacheTest {
+
+    @TempDir Path tmp;
+
+    Path recording;
+    List<IncrementalAnalysisCache.ChunkHeader> headers;
+    IncrementalAnalysisCache cache;
+    CancellationToken token;
+
+    @BeforeEach
+    void setup() throws Exception {
+        recording = Path.of(getClass().getResource("/profiling_sample.jfr").toURI());
+        try (FileChannel channel = FileChannel.open(recording)) {
+            headers = IncrementalAnalysisCache.readChunkHeaders(channel);
+        }
+        MatcherAssert.assertThat(headers, Matchers.hasSize(2));
+        cache = new IncrementalAnalysisCache();
+        cache.maxJvms = 8;
+        cache.maxRetainedBytes = Long.MAX_VALUE;
+        cache.logger = Logger.getLogger(IncrementalAnalysisCache.class);
+        token = new CancellationToken("test", cache.logger);
+    }
+
+    @Test
+    void testRepeatedRequestParsesNoChunks() throws Exception {
+        IncrementalAnalysisCache.Update first = cache.update("jvm", recording, token);
+        MatcherAssert.assertThat(first.cached(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(first.parsed(), Matchers.equalTo(2));
+
+        IncrementalAnalysisCache.Update second = cache.update("jvm", recording, token);
+        MatcherAssert.assertThat(second.cached(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(second.parsed(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void testGrownRecordingMatchesFullParse() throws Exception {
+        cache.update("jvm", chunks(0, 1), token);
+
+        IncrementalAnalysisCache.Update grown = cache.update("jvm", recording, token);
+        MatcherAssert.assertThat(grown.cached(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(grown.parsed(), Matchers.equalTo(1));
+
+        Map<String, Double> expected = scores(JfrLoaderToolkit.loadEvents(recording.toFile()));
+        Map<String, Double> actual = scores(grown.items());
+        MatcherAssert.assertThat(actual.keySet(), Matchers.equalTo(expected.keySet()));
+        expected.forEach(
+                (id, score) ->
+                        MatcherAssert.assertThat(
+                                id, actual.get(id), Matchers.closeTo(score, 1e-9)));
+    }
+
+    @Test
+    void testRotatedRecordingReusesRemainingChunks() throws Exception {
+        cache.update("jvm", recording, token);
+
+        IncrementalAnalysisCache.Update rotated = cache.update("jvm", chunks(1, 2), token);
+        MatcherAssert.assertThat(rotated.cached(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(rotated.parsed(), Matchers.equalTo(0));
+
+        // the chunk which aged out is no longer retained
+        IncrementalAnalysisCache.Update restored = cache.update("jvm", recording, token);
+        MatcherAssert.assertThat(restored.cached(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(restored.parsed(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void testRecordingsBeyondRetainedLimitAreEvicted() throws Exception {
+        cache.maxRetainedBytes = Files.size(recording) + 1;
+        cache.update("a", recording, token);
+        cache.update("b", recording, token);
+
+        MatcherAssert.assertThat(cache.update("b", recording, token).cached(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(cache.update("a", recording, token).parsed(), Matchers.equalTo(2));
+
+        cache.maxRetainedBytes = 1;
+        cache.update("a", recording, token);
+        MatcherAssert.assertThat(cache.update("a", recording, token).parsed(), Matchers.equalTo(2));
+    }
+
+    private Path chunks(int from, int to) throws Exception {
+        byte[] bytes = Files.readAllBytes(recording);
+        long start = headers.get(from).offset();
+        long end = headers.get(to - 1).offset() + headers.get(to - 1).size();
+        Path file = Files.createTempFile(tmp, "chunks", ".jfr");
+        Files.write(file, Arrays.copyOfRange(bytes, (int) start, (int) end));
+        return file;
+    }
+
+    private static Map<String, Double> scores(IItemCollection items) throws Exception {
+        Map<IRule, Future<IResult>> futures =
+                RulesToolkit.evaluateParallel(
+                        RuleRegistry.getRules(), items, IPreferenceValueProvider.DEFAULT_VALUES, 1);
+        Map<String, Double> scores = new TreeMap<>();
+        for (var e : futures.entrySet()) {
+            IResult result = e.getValue().get();
+            IQuantity score = result.getResult(TypedResult.SCORE);
+            scores.put(
+                    e.getKey().getId(),
+                    score != null ? score.doubleValue() : result.getSeverity().getLimit());
+        }
+        return scores;
+    }
+}
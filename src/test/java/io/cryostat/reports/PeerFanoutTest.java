@@ -0,0 +1,114 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.openjdk.jmc.flightrecorder.rules.DependsOn;
+import org.openjdk.jmc.flightrecorder.rules.IRule;
+import org.openjdk.jmc.flightrecorder.rules.RuleRegistry;
+
+public class PeerFanoutTest {
+
+    static final Collection<IRule> RULES = RuleRegistry.getRules();
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 7, 100})
+    void testPartsAreDisjointAndComplete(int count) {
+        List<Set<String>> parts = PeerFanout.partition(RULES, r -> true, count);
+
+        MatcherAssert.assertThat(parts, Matchers.hasSize(count));
+        Set<String> all = new HashSet<>();
+        int total = 0;
+        for (Set<String> part : parts) {
+            all.addAll(part);
+            total += part.size();
+        }
+        MatcherAssert.assertThat(total, Matchers.equalTo(all.size()));
+        MatcherAssert.assertThat(all, Matchers.equalTo(ids(RULES, r -> true)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 7, 100})
+    void testDependentRulesShareAPart(int count) {
+        List<IRule> dependents =
+                RULES.stream()
+                        .filter(r -> r.getClass().isAnnotationPresent(DependsOn.class))
+                        .toList();
+        MatcherAssert.assertThat(dependents, Matchers.not(Matchers.empty()));
+
+        List<Set<String>> parts = PeerFanout.partition(RULES, r -> true, count);
+        for (IRule rule : dependents) {
+            String dependency =
+                    rule.getClass().getAnnotation(DependsOn.class).value().getSimpleName();
+            Set<String> part =
+                    parts.stream().filter(p -> p.contains(rule.getId())).findFirst().orElseThrow();
+            MatcherAssert.assertThat(rule.getId(), part, Matchers.hasItem(dependency));
+        }
+    }
+
+    @Test
+    void testOnlySelectedRulesArePartitioned() {
+        Predicate<IRule> predicate = r -> r.getId().startsWith("G");
+        List<Set<String>> parts = PeerFanout.partition(RULES, predicate, 3);
+
+        Set<String> all = new HashSet<>();
+        parts.forEach(all::addAll);
+        MatcherAssert.assertThat(all, Matchers.equalTo(ids(RULES, predicate)));
+    }
+
+    @Test
+    void testPartsAreBalanced() {
+        List<Set<String>> parts = PeerFanout.partition(RULES, r -> true, 4);
+        int min = parts.stream().mapToInt(Set::size).min().getAsInt();
+        int max = parts.stream().mapToInt(Set::size).max().getAsInt();
+        // the largest group is GarbageCollectionInfoRule with the four rules depending on it
+        MatcherAssert.assertThat(max - min, Matchers.lessThanOrEqualTo(5));
+    }
+
+    @Test
+    void testSharedFileRequiresItsToken() {
+        PeerFanout fanout = new PeerFanout();
+        Path file = Path.of("recording.jfr");
+        PeerFanout.SharedFile shared = fanout.share(file);
+        PeerFanout.SharedFile other = fanout.share(file);
+
+        MatcherAssert.assertThat(fanout.file(shared.id(), shared.token()), Matchers.equalTo(file));
+        MatcherAssert.assertThat(fanout.file(shared.id(), null), Matchers.nullValue());
+        MatcherAssert.assertThat(fanout.file(shared.id(), other.token()), Matchers.nullValue());
+        MatcherAssert.assertThat(
+                fanout.file(shared.id(), shared.token() + "x"), Matchers.nullValue());
+
+        fanout.unshare(shared.id());
+        MatcherAssert.assertThat(fanout.file(shared.id(), shared.token()), Matchers.nullValue());
+        MatcherAssert.assertThat(fanout.file(other.id(), other.token()), Matchers.equalTo(file));
+    }
+
+    private static Set<String> ids(Collection<IRule> rules, Predicate<IRule> predicate) {
+        return rules.stream().filter(predicate).map(IRule::getId).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import static io.restassured.RestAssured.given;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+import io.cryostat.ReportResourceTest.RuleEvaluation;
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+// The test instance is its own peer: uploads are analyzed on the disk path and always fanned out,
+// and the queue has a second slot for the peer request while the first request waits for it
+@QuarkusTest
+@TestProfile(ReportResourceFanoutTest.SelfPeer.class)
+public class ReportResourceFanoutTest {
+
+    public static class SelfPeer implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "io.cryostat.reports.fanout.peers", "http://localhost:8081",
+                    "io.cryostat.reports.fanout.advertised-url", "http://localhost:8081",
+                    "io.cryostat.reports.fanout.min-bytes", "0",
+                    "io.cryostat.reports.upload.in-memory-max-bytes", "0",
+                    "io.cryostat.reports.queue.concurrency", "2");
+        }
+    }
+
+    @Inject RuleEvaluator evaluator;
+
+    @Test
+    public void testFannedOutReportMatchesLocalAnalysis() throws Exception {
+        File jfr = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        Path events = Files.createTempFile("fanout", ".jfr");
+        String response;
+        try (Recording recording = new Recording()) {
+            recording.enable(ReportEvents.PREFIX + "PeerAnalysis");
+            recording.start();
+            response =
+                    given().contentType("multipart/form-data")
+                            .accept(ContentType.JSON)
+                            .multiPart("file", jfr)
+                            .when()
+                            .post("/report")
+                            .then()
+                            .statusCode(200)
+                            .extract()
+                            .asString();
+            recording.stop();
+            recording.dump(events);
+        }
+
+        // the peer answered its part of the rules
+        List<RecordedEvent> peerAnalyses = RecordingFile.readAllEvents(events);
+        Files.delete(events);
+        MatcherAssert.assertThat(peerAnalyses, Matchers.hasSize(1));
+        MatcherAssert.assertThat(peerAnalyses.get(0).getInt("status"), Matchers.equalTo(200));
+        MatcherAssert.assertThat(peerAnalyses.get(0).getInt("rules"), Matchers.greaterThan(0));
+
+        Map<String, RuleEvaluation> merged =
+                new ObjectMapper()
+                        .readValue(response, new TypeReference<Map<String, RuleEvaluation>>() {});
+        Map<String, AnalysisResult> expected =
+                evaluator
+                        .submit(
+                                "test",
+                                () -> JfrLoaderToolkit.loadEvents(jfr),
+                                r -> true,
+                                1,
+                                new CancellationToken("test", Logger.getLogger(getClass())))
+                        .get();
+        MatcherAssert.assertThat(merged.keySet(), Matchers.equalTo(expected.keySet()));
+        expected.forEach(
+                (id, result) ->
+                        MatcherAssert.assertThat(
+                                id,
+                                merged.get(id).getScore(),
+                                Matchers.closeTo(result.getScore(), 1e-9)));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import static io.restassured.RestAssured.given;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.HttpHeaders;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+// The only analysis slot is held by the test itself, and no request may wait for it, so the
+// request is rejected immediately. Before any analysis has completed, the Retry-After estimate is
+// based on the maximum wait.
+@QuarkusTest
+@TestProfile(ReportResourceQueueTest.NoQueue.class)
+public class ReportResourceQueueTest {
+
+    public static class NoQueue implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "io.cryostat.reports.queue.concurrency", "1",
+                    "io.cryostat.reports.queue.depth", "0",
+                    "io.cryostat.reports.queue.max-wait-ms", "5000");
+        }
+    }
+
+    @Inject AnalysisQueue queue;
+
+    @Test
+    public void testFullQueueIsRejectedWithRetryAfter() throws Exception {
+        File jfr = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+        try (AnalysisQueue.Ticket ticket = queue.enter("other", 0)) {
+            given().contentType("multipart/form-data")
+                    .accept(ContentType.JSON)
+                    .multiPart("file", jfr)
+                    .when()
+                    .post("/report")
+                    .then()
+                    .statusCode(429)
+                    .header(HttpHeaders.RETRY_AFTER, "5");
+
+            given().when()
+                    .get("/queue")
+                    .then()
+                    .statusCode(200)
+                    .body("active", Matchers.equalTo(1))
+                    .body("queued", Matchers.equalTo(0));
+        }
+
+        given().contentType("multipart/form-data")
+                .accept(ContentType.JSON)
+                .multiPart("file", jfr)
+                .when()
+                .post("/report")
+                .then()
+                .statusCode(200);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.cryostat.core.reports.InterruptibleReportGenerator;
+import io.cryostat.core.reports.InterruptibleReportGenerator.AnalysisResult;
+
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+
+// The RuleEvaluator must report the same rules with the same scores as the report generator of
+// cryostat-core, including its custom rules, on the same recording
+@QuarkusTest
+public class RuleEvaluatorParityTest {
+
+    @Inject RuleEvaluator evaluator;
+
+    @Test
+    public void testEvaluatorMatchesReportGenerator() throws Exception {
+        File jfr = Paths.get(getClass().getResource("/profiling_sample.jfr").toURI()).toFile();
+
+        Map<String, AnalysisResult> expected;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(jfr.toPath()))) {
+            expected =
+                    new InterruptibleReportGenerator(executor)
+                            .generateEvalMapInterruptibly(stream, r -> true)
+                            .get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, AnalysisResult> actual =
+                evaluator
+                        .submit(
+                                "test",
+                                () -> JfrLoaderToolkit.loadEvents(jfr),
+                                r -> true,
+                                2,
+                                new CancellationToken("test", Logger.getLogger(getClass())))
+                        .get();
+
+        MatcherAssert.assertThat(actual.keySet(), Matchers.equalTo(expected.keySet()));
+        expected.forEach(
+                (id, result) -> {
+                    MatcherAssert.assertThat(
+                            id, actual.get(id).getName(), Matchers.equalTo(result.getName()));
+                    MatcherAssert.assertThat(
+                            id, actual.get(id).getTopic(), Matchers.equalTo(result.getTopic()));
+                    MatcherAssert.assertThat(
+                            id,
+                            actual.get(id).getScore(),
+                            Matchers.closeTo(result.getScore(), 1e-9));
+                });
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright The Cryostat Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.cryostat.reports;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class UploadBuffersTest {
+
+    @TempDir Path tmp;
+
+    UploadBuffers buffers;
+    byte[] recording;
+
+    @BeforeEach
+    void setup() throws Exception {
+        buffers = new UploadBuffers();
+        buffers.maxBytes = 4 * 1024 * 1024;
+        buffers.poolSize = 1;
+        buffers.init();
+        recording =
+                Files.readAllBytes(
+                        Path.of(getClass().getResource("/profiling_sample.jfr").toURI()));
+    }
+
+    @Test
+    void testReadsUncompressedUpload() throws Exception {
+        try (UploadBuffers.Buffer buffer = buffers.read(write(recording, false))) {
+            MatcherAssert.assertThat(buffer, Matchers.notNullValue());
+            assertContent(buffer, recording);
+        }
+    }
+
+    @Test
+    void testDecompressesUploadPastItsCompressedSize() throws Exception {
+        Path gz = write(recording, true);
+        MatcherAssert.assertThat(Files.size(gz), Matchers.lessThan((long) recording.length));
+        try (UploadBuffers.Buffer buffer = buffers.read(gz)) {
+            MatcherAssert.assertThat(buffer, Matchers.notNullValue());
+            assertContent(buffer, recording);
+        }
+    }
+
+    @Test
+    void testCompressedUploadExpandingPastLimitIsRejected() throws Exception {
+        buffers.maxBytes = 1024 * 1024;
+        Path gz = write(recording, true);
+        MatcherAssert.assertThat(buffers.accepts(gz, Files.size(gz)), Matchers.is(true));
+        MatcherAssert.assertThat(buffers.read(gz), Matchers.nullValue());
+    }
+
+    @Test
+    void testOnlyCompressedUploadsAreAccepted() throws Exception {
+        Path jfr = write(recording, false);
+        Path gz = write(recording, true);
+        MatcherAssert.assertThat(buffers.accepts(jfr, Files.size(jfr)), Matchers.is(false));
+        MatcherAssert.assertThat(buffers.accepts(gz, Files.size(gz)), Matchers.is(true));
+    }
+
+    @Test
+    void testBufferIsPooledWhenUploadCannotBeRead() throws Exception {
+        Path gz = write(recording, true);
+        Path truncated = Files.createTempFile(tmp, "truncated", ".jfr.gz");
+        Files.write(truncated, Arrays.copyOf(Files.readAllBytes(gz), (int) Files.size(gz) / 2));
+
+        Assertions.assertThrows(IOException.class, () -> buffers.read(truncated));
+        MatcherAssert.assertThat(buffers.pool, Matchers.hasSize(1));
+    }
+
+    @Test
+    void testPooledBufferIsGrownForLargerUpload() throws Exception {
+        byte[] small = new byte[1000];
+        try (UploadBuffers.Buffer buffer = buffers.read(write(small, false))) {
+            assertContent(buffer, small);
+            buffer.markReusable();
+        }
+        try (UploadBuffers.Buffer buffer = buffers.read(write(recording, false))) {
+            MatcherAssert.assertThat(buffer, Matchers.notNullValue());
+            assertContent(buffer, recording);
+        }
+    }
+
+    private Path write(byte[] content, boolean compressed) throws Exception {
+        Path file = Files.createTempFile(tmp, "upload", compressed ? ".jfr.gz" : ".jfr");
+        try (OutputStream out =
+                compressed
+                        ? new GZIPOutputStream(Files.newOutputStream(file))
+                        : Files.newOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private static void assertContent(UploadBuffers.Buffer buffer, byte[] expected)
+            throws Exception {
+        MatcherAssert.assertThat(buffer.length(), Matchers.equalTo(expected.length));
+        try (InputStream in = buffer.newInputStream()) {
+            MatcherAssert.assertThat(in.readAllBytes(), Matchers.equalTo(expected));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+#!/bin/sh
+
+# Measures the time from container start until the service is ready, and until the first report
+# has been generated, for one or more images. A run fails if the service is not ready within TIMEOUT
+# seconds. Usage:
+#
+#   IMAGES="quay.io/cryostat/cryostat-reports:latest localhost/cryostat-reports-aot:latest" \
+#       ./startup-benchmark.sh
+
+set -e
+
+if [ -z "${IMAGES}" ]; then
+    IMAGES="quay.io/cryostat/cryostat-reports:latest"
+fi
+
+if [ -z "${RUNS}" ]; then
+    RUNS=5
+fi
+
+if [ -z "${CPUS}" ]; then
+    CPUS=1
+fi
+
+if [ -z "${MEMORY}" ]; then
+    MEMORY="512M"
+fi
+
+if [ -z "${PORT}" ]; then
+    PORT=8081
+fi
+
+if [ -z "${TIMEOUT}" ]; then
+    TIMEOUT=120
+fi
+
+if [ -z "${RECORDING}" ]; then
+    RECORDING="$(dirname "$0")/src/test/resources/profiling_sample.jfr"
+fi
+
+now_ms() {
+    date +%s%3N
+}
+
+# /ready also waits for the warm-up, images which predate it only serve /health
+is_ready() {
+    status="$(curl -s -o /dev/null -w '%{http_code}' "http://localhost:${PORT}/ready")"
+    if [ "${status}" = "404" ]; then
+        curl -sf "http://localhost:${PORT}/health" >/dev/null
+    else
+        [ "${status}" = "204" ]
+    fi
+}
+
+for image in ${IMAGES}; do
+    for run in $(seq 1 "${RUNS}"); do
+        start="$(now_ms)"
+        container="$(podman run \
+            --detach \
+            --rm \
+            --cpus "${CPUS}" \
+            --memory "${MEMORY}" \
+            --publish "${PORT}:8080" \
+            "${image}")"
+        deadline=$((start + TIMEOUT * 1000))
+        until is_ready; do
+            if [ "$(now_ms)" -gt "${deadline}" ]; then
+                echo "${image} run=${run} was not ready after ${TIMEOUT}s" >&2
+                podman stop "${container}" >/dev/null
+                exit 1
+            fi
+            sleep 0.05
+        done
+        ready="$(now_ms)"
+        curl -sf -F "file=@${RECORDING}" "http://localhost:${PORT}/report" >/dev/null
+        first_report="$(now_ms)"
+        curl -sf -F "file=@${RECORDING}" "http://localhost:${PORT}/report" >/dev/null
+        second_report="$(now_ms)"
+        podman stop "${container}" >/dev/null
+        echo "${image} run=${run} ready=$((ready - start))ms first_report=$((first_report - start))ms second_report_latency=$((second_report - first_report))ms"
+    done
+done